@@ -0,0 +1,84 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.EvalMode;
+import cs.ratnani.math.Evaluator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class times `EvalMode.BATCH` on functions that are only arithmetic,
+ * which is what `VectorKernels` speeds up. It runs with the Vector API
+ * module, so the vector kernels are used; to compare against the plain
+ * loops, run it again with `-jvmArgsAppend -Dcs.ratnani.vector=false`. Adding
+ * `-XX:-UseSuperWord` as well stops the JIT from vectorizing the plain loops
+ * itself, which shows what that is worth. Times are per point.
+ *
+ * @see Benchmarks
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    // Constants: --------------------------------------------------------------
+
+    // A row of a 1024 pixel wide plot
+    private static final int POINTS = 1024;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    @Param({"z z * z +", "z 1 + z 1 - /", "z z * 1 + inv z abs *"})
+    public String function;
+
+    private Evaluator evaluator;
+    private double[] inRe;
+    private double[] inIm;
+    private final double[] re = new double[POINTS];
+    private final double[] im = new double[POINTS];
+
+
+    // Benchmarks: -------------------------------------------------------------
+
+    @Setup
+    public void setUp(){
+        evaluator = CompiledFunction.compile(function, false).newEvaluator(EvalMode.BATCH);
+        Random rand = new Random(0);
+        inRe = new double[POINTS];
+        inIm = new double[POINTS];
+        for(int k = 0; k < POINTS; k++){
+            inRe[k] = 4*rand.nextDouble() - 2;
+            inIm[k] = 4*rand.nextDouble() - 2;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] evaluateBatch(){
+        System.arraycopy(inRe, 0, re, 0, POINTS);
+        System.arraycopy(inIm, 0, im, 0, POINTS);
+        evaluator.evaluateBatch(re, im, POINTS);
+        return re;
+    }
+
+}
@@ -0,0 +1,89 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.ColorTable;
+import cs.ratnani.math.Complex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class times coloring a point three ways: `Complex.getColor`, which
+ * makes a `Color`, `Complex.getRGB`, which packs the color into an int, and
+ * `ColorTable`, which looks it up. Times are per point.
+ *
+ * @see Benchmarks
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColorBenchmark {
+
+    // Constants: --------------------------------------------------------------
+
+    // How many points are colored per call
+    static final int INPUTS = 1024;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private Complex[] in;
+    private ColorTable table;
+
+
+    // Benchmarks: -------------------------------------------------------------
+
+    @Setup
+    public void setUp(){
+        in = inputs();
+        table = ColorTable.getDefault();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void getColor(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(z.getColor());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void getRGB(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(Complex.getRGB(z.getRe(), z.getIm()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void colorTable(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(table.getRGB(z.getRe(), z.getIm()));
+    }
+
+    /** @return `INPUTS` points spread over [-2, 2] x [-2, 2], the same every run */
+    static Complex[] inputs(){
+        Random rand = new Random(0);
+        Complex[] ret = new Complex[INPUTS];
+        for(int k = 0; k < INPUTS; k++)
+            ret[k] = new Complex(4*rand.nextDouble() - 2, 4*rand.nextDouble() - 2);
+        return ret;
+    }
+
+}
@@ -0,0 +1,138 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.ComplexMath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class times each of the operators in `ComplexMath`, on the same points
+ * as `ColorBenchmark`. The binary ones are given each point and the one after
+ * it. Times are per call.
+ *
+ * @see Benchmarks
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OperatorBenchmark {
+
+    // Instance Variables: -----------------------------------------------------
+
+    private Complex[] in;
+
+
+    // Benchmarks: -------------------------------------------------------------
+
+    @Setup
+    public void setUp(){
+        in = ColorBenchmark.inputs();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void add(Blackhole bh){
+        for(int k = 0; k < in.length; k++)
+            bh.consume(ComplexMath.add(in[k], next(k)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void sub(Blackhole bh){
+        for(int k = 0; k < in.length; k++)
+            bh.consume(ComplexMath.sub(in[k], next(k)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void mul(Blackhole bh){
+        for(int k = 0; k < in.length; k++)
+            bh.consume(ComplexMath.mul(in[k], next(k)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void div(Blackhole bh){
+        for(int k = 0; k < in.length; k++)
+            bh.consume(ComplexMath.div(in[k], next(k)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void pow(Blackhole bh){
+        for(int k = 0; k < in.length; k++)
+            bh.consume(ComplexMath.pow(in[k], next(k)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void negate(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.negate(z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void conj(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.conj(z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void inv(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.inv(z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void exp(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.exp(z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void ln(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.ln(z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void sin(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.sin(z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ColorBenchmark.INPUTS)
+    public void cos(Blackhole bh){
+        for(Complex z : in)
+            bh.consume(ComplexMath.cos(z));
+    }
+
+    private Complex next(int k){
+        return in[(k + 1) % in.length];
+    }
+
+}
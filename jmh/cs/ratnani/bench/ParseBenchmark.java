@@ -0,0 +1,63 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.ComplexMath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class times parsing: `ComplexMath.parsePostfix` on the functions
+ * `Benchmarks` plots, and `Complex.parseComplex` on a few numbers in each of
+ * the forms it accepts.
+ *
+ * @see Benchmarks
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    // Constants: --------------------------------------------------------------
+
+    private static final String[] NUMBERS = {"2", "-3.75", "4i", "-0.5j", "i", "1.5+2i", "2-0.25i"};
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    @Param({"z", "z 2 ^", "z 1 + z 1 - /", "z sin", "z exp z ln *", "z 3 ^ 1 - z 2 ^ 1 + / sin"})
+    public String function;
+
+    private final Complex z = new Complex(0.5, -0.25);
+
+
+    // Benchmarks: -------------------------------------------------------------
+
+    @Benchmark
+    public Complex parsePostfix(){
+        return ComplexMath.parsePostfix(function, z);
+    }
+
+    @Benchmark
+    public void parseComplex(Blackhole bh){
+        for(String n : NUMBERS)
+            bh.consume(Complex.parseComplex(n));
+    }
+
+}
@@ -0,0 +1,75 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.ComplexMath;
+import cs.ratnani.render.PlotRenderer;
+import cs.ratnani.render.RenderJob;
+import cs.ratnani.render.Viewport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class times whole plots of [-2, 2] x [-2, 2], both with
+ * `ComplexMath.plot` on one thread and with the renderer's pool. Times are
+ * per plot; divide by `size` squared for the time per pixel. `render()`
+ * does not look in a tile cache, so every call computes every pixel.
+ *
+ * @see Benchmarks
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class PlotBenchmark {
+
+    // Instance Variables: -----------------------------------------------------
+
+    @Param({"z", "z 2 ^", "z 1 + z 1 - /", "z sin", "z exp z ln *", "z 3 ^ 1 - z 2 ^ 1 + / sin"})
+    public String function;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private CompiledFunction compiled;
+    private Viewport viewport;
+    private PlotRenderer renderer;
+
+
+    // Benchmarks: -------------------------------------------------------------
+
+    @Setup
+    public void setUp(){
+        compiled = CompiledFunction.compile(function);
+        viewport = new Viewport(2, -2, 2, -2, size, size);
+        renderer = new PlotRenderer(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public BufferedImage plot(){
+        return ComplexMath.plot(function, 2, -2, 2, -2, size, size);
+    }
+
+    @Benchmark
+    public BufferedImage render(){
+        return renderer.render(new RenderJob(compiled, viewport, ColorMap.EXACT));
+    }
+
+}
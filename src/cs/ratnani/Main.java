@@ -1,17 +1,26 @@
 package cs.ratnani;
 
+import cs.ratnani.cli.BatchRenderer;
 import cs.ratnani.ui.TopWindow;
 
 
 /**
  * This class provides the resources to run this application. It contains one
- * method: `main`, which will do just that.
+ * method: `main`, which will do just that. With no arguments, it opens the
+ * window. With arguments, it plots them to files without a window instead
+ * (see `BatchRenderer`).
  *
  * @author Ammar Ratnani
- * @version 2017.05.16
+ * @version 2017.05.17
  */
 public class Main {
     public static void main(String[] args) {
+        // Plot from the command line, without loading any of the UI
+        if(args.length > 0){
+            BatchRenderer.main(args);
+            return;
+        }
+
         // Open the window and make it visible
         TopWindow window = new TopWindow("AP Computer Science A - Final Project");
         window.setVisible(true);
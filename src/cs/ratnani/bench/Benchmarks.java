@@ -0,0 +1,320 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.ColorTable;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.ComplexMath;
+import cs.ratnani.render.PlotRenderer;
+import cs.ratnani.render.RenderJob;
+import cs.ratnani.render.Viewport;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+
+/**
+ * This class times the hot paths of the program, so a change that is meant to
+ * make something faster can be checked. It covers parsing (`parsePostfix` and
+ * `parseComplex`), coloring (`getColor`, `getRGB`, and `ColorTable`), each of
+ * the operators in `ComplexMath`, and whole plots, over a fixed set of
+ * functions and sizes.
+ * Run it with
+ * <pre>
+ *     java -cp out cs.ratnani.bench.Benchmarks [filter...]
+ * </pre>
+ * where only the benchmarks whose names contain one of the filters are run
+ * (all of them if there are none).
+ *
+ * Each benchmark is run over and over for `cs.ratnani.bench.warmupMs`
+ * milliseconds so the JIT can compile it, then timed for
+ * `cs.ratnani.bench.iterations` rounds of about `cs.ratnani.bench.iterMs`
+ * milliseconds each. It prints the time and the memory allocated per unit of
+ * work (a pixel for plots, a call for everything else). The best round is
+ * printed along with the average, since on a busy machine the best is the
+ * closest to what the code can do. Memory is counted with the JVM's per-thread
+ * allocation counter, which only sees the thread running the benchmark; the
+ * `render` benchmarks also use the renderer's threads, so their bytes/unit
+ * only counts what the calling thread allocates.
+ *
+ * This is the quick check, for when only the program itself is at hand. The
+ * same benchmarks are in `jmh/` for JMH, which does forking, dead code and
+ * allocation (`-prof gc`) properly; see `pom.xml` for how to run them. Use
+ * those for numbers that have to hold up.
+ *
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class Benchmarks {
+
+    // Constants: --------------------------------------------------------------
+
+    private static final long WARMUP_MS = Long.getLong("cs.ratnani.bench.warmupMs", 1000);
+    private static final long ITER_MS = Long.getLong("cs.ratnani.bench.iterMs", 1000);
+    private static final int ITERATIONS = Integer.getInteger("cs.ratnani.bench.iterations", 5);
+
+    // The functions plotted, from the simplest to the most work per pixel
+    private static final String[] FUNCTIONS = {
+            "z",
+            "z 2 ^",
+            "z 1 + z 1 - /",
+            "z sin",
+            "z exp z ln *",
+            "z 3 ^ 1 - z 2 ^ 1 + / sin",
+    };
+
+    // The sizes they are plotted at
+    private static final int[] SIZES = {256, 1024};
+
+    // The numbers the parser is timed on
+    private static final String[] NUMBERS = {"2", "-3.75", "4i", "-0.5j", "i", "1.5+2i", "2-0.25i"};
+
+    // How many inputs the operators and colors are timed over. They are
+    //  spread over the usual plot area.
+    private static final int INPUTS = 1024;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    // Everything the benchmarks compute is added into this, so the JIT can
+    //  not throw the work away
+    private static volatile long sink;
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Runs the benchmarks and prints a table of the results.
+     *
+     * @param args Only run the benchmarks whose names contain one of these
+     */
+    public static void main(String[] args){
+        System.setProperty("java.awt.headless", "true");
+
+        List<Case> cases = new ArrayList<>();
+        for(Case c : corpus())
+            if(args.length == 0 || Arrays.stream(args).anyMatch(c.name::contains))
+                cases.add(c);
+
+        System.out.printf("%-40s %12s %12s %12s%n", "Benchmark", "ns/unit", "best", "bytes/unit");
+        for(Case c : cases){
+            Result r = measure(c);
+            System.out.printf("%-40s %12.2f %12.2f %12.1f%n", c.name, r.nsPerUnit, r.bestNsPerUnit, r.bytesPerUnit);
+        }
+    }
+
+    /**
+     * Times one benchmark.
+     *
+     * @param c What to time
+     * @return How fast it ran and how much it allocated
+     */
+    public static Result measure(Case c){
+        long s = 0;
+        // Warm up
+        long end = System.nanoTime() + WARMUP_MS * 1_000_000;
+        while(System.nanoTime() < end)
+            s += c.body.run();
+
+        double total = 0;
+        double best = Double.POSITIVE_INFINITY;
+        long units = 0;
+        long bytes = 0;
+        for(int i = 0; i < ITERATIONS; i++){
+            long calls = 0;
+            long b0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            long t1;
+            do {
+                s += c.body.run();
+                calls++;
+                t1 = System.nanoTime();
+            } while(t1 - t0 < ITER_MS * 1_000_000);
+            bytes += allocatedBytes() - b0;
+
+            units += calls * c.units;
+            total += t1 - t0;
+            best = Math.min(best, (double) (t1 - t0) / (calls * c.units));
+        }
+        sink += s;
+        return new Result(total / units, best, bytesSupported() ? (double) bytes / units : Double.NaN);
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** @return Every benchmark, in the order they are run */
+    private static List<Case> corpus(){
+        List<Case> ret = new ArrayList<>();
+
+        // Inputs spread over [-2, 2] x [-2, 2], the same every run
+        Random rand = new Random(0);
+        Complex[] in = new Complex[INPUTS];
+        for(int k = 0; k < INPUTS; k++)
+            in[k] = new Complex(4*rand.nextDouble() - 2, 4*rand.nextDouble() - 2);
+
+        // Parsing
+        for(String f : FUNCTIONS)
+            ret.add(new Case("parsePostfix[" + f + "]", 1,
+                    () -> bits(ComplexMath.parsePostfix(f, in[0]))));
+        ret.add(new Case("parseComplex", NUMBERS.length, () -> {
+            long s = 0;
+            for(String n : NUMBERS)
+                s += bits(Complex.parseComplex(n));
+            return s;
+        }));
+
+        // Coloring
+        ret.add(new Case("getColor", INPUTS, () -> {
+            long s = 0;
+            for(Complex z : in)
+                s += z.getColor().getRGB();
+            return s;
+        }));
+        ret.add(new Case("getRGB", INPUTS, () -> {
+            long s = 0;
+            for(Complex z : in)
+                s += Complex.getRGB(z.getRe(), z.getIm());
+            return s;
+        }));
+        ColorTable table = ColorTable.getDefault();
+        ret.add(new Case("ColorTable", INPUTS, () -> {
+            long s = 0;
+            for(Complex z : in)
+                s += table.getRGB(z.getRe(), z.getIm());
+            return s;
+        }));
+
+        // Operators
+        ret.add(binary("add", ComplexMath::add, in));
+        ret.add(binary("sub", ComplexMath::sub, in));
+        ret.add(binary("mul", ComplexMath::mul, in));
+        ret.add(binary("div", ComplexMath::div, in));
+        ret.add(binary("pow", ComplexMath::pow, in));
+        ret.add(unary("negate", ComplexMath::negate, in));
+        ret.add(unary("conj", ComplexMath::conj, in));
+        ret.add(unary("inv", ComplexMath::inv, in));
+        ret.add(unary("exp", ComplexMath::exp, in));
+        ret.add(unary("ln", ComplexMath::ln, in));
+        ret.add(unary("sin", ComplexMath::sin, in));
+        ret.add(unary("cos", ComplexMath::cos, in));
+
+        // Whole plots, on one thread and on the renderer's pool
+        for(String f : FUNCTIONS){
+            CompiledFunction cf = CompiledFunction.compile(f);
+            for(int n : SIZES){
+                ret.add(new Case("plot[" + f + "]@" + n, (long) n * n, () -> {
+                    BufferedImage img = ComplexMath.plot(f, 2, -2, 2, -2, n, n);
+                    return img.getRGB(n / 2, n / 2);
+                }));
+                ret.add(new Case("render[" + f + "]@" + n, (long) n * n, () -> {
+                    RenderJob job = new RenderJob(cf, new Viewport(2, -2, 2, -2, n, n), ColorMap.EXACT);
+                    BufferedImage img = PlotRenderer.getDefault().render(job);
+                    return img.getRGB(n / 2, n / 2);
+                }));
+            }
+        }
+        return ret;
+    }
+
+    /** @return A benchmark of `op` on each pair of neighboring inputs */
+    private static Case binary(String name, BinaryOperator<Complex> op, Complex[] in){
+        return new Case("ComplexMath." + name, in.length, () -> {
+            long s = 0;
+            for(int k = 0; k < in.length; k++)
+                s += bits(op.apply(in[k], in[(k + 1) % in.length]));
+            return s;
+        });
+    }
+
+    /** @return A benchmark of `op` on each input */
+    private static Case unary(String name, UnaryOperator<Complex> op, Complex[] in){
+        return new Case("ComplexMath." + name, in.length, () -> {
+            long s = 0;
+            for(Complex z : in)
+                s += bits(op.apply(z));
+            return s;
+        });
+    }
+
+    private static long bits(Complex z){
+        return Double.doubleToRawLongBits(z.getRe()) ^ Double.doubleToRawLongBits(z.getIm());
+    }
+
+    /** @return Whether this JVM can count the bytes a thread allocates */
+    private static boolean bytesSupported(){
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean;
+    }
+
+    /** @return How many bytes this thread has allocated, or 0 if unknown */
+    private static long allocatedBytes(){
+        if(!bytesSupported())
+            return 0;
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /** The work done by one call of a benchmark */
+    @FunctionalInterface
+    public interface Body {
+        /** @return Anything computed from the result, so it is not optimized away */
+        long run();
+    }
+
+    /** A named benchmark, and how many units of work each call does */
+    public static final class Case {
+
+        private final String name;
+        private final long units;
+        private final Body body;
+
+        /**
+         * @param name What to call it in the results
+         * @param units How many units of work (ex. pixels) one call does
+         * @param body The work
+         */
+        public Case(String name, long units, Body body){
+            this.name = name;
+            this.units = units;
+            this.body = body;
+        }
+
+        /** @return What it is called in the results */
+        public String getName(){ return name; }
+
+    }
+
+    /** How fast a benchmark ran and how much it allocated */
+    public static final class Result {
+
+        private final double nsPerUnit;
+        private final double bestNsPerUnit;
+        private final double bytesPerUnit;
+
+        private Result(double nsPerUnit, double bestNsPerUnit, double bytesPerUnit){
+            this.nsPerUnit = nsPerUnit;
+            this.bestNsPerUnit = bestNsPerUnit;
+            this.bytesPerUnit = bytesPerUnit;
+        }
+
+        /** @return The average time per unit of work, in nanoseconds */
+        public double getNsPerUnit(){ return nsPerUnit; }
+
+        /** @return The time per unit of work in the fastest round */
+        public double getBestNsPerUnit(){ return bestNsPerUnit; }
+
+        /** @return The bytes allocated per unit of work, or `NaN` if unknown */
+        public double getBytesPerUnit(){ return bytesPerUnit; }
+
+    }
+
+}
@@ -0,0 +1,371 @@
+package cs.ratnani.cli;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.ComplexMath;
+import cs.ratnani.render.FrameRenderer;
+import cs.ratnani.render.PlotRenderer;
+import cs.ratnani.render.RenderJob;
+import cs.ratnani.render.StreamingExporter;
+import cs.ratnani.render.Viewport;
+import cs.ratnani.util.RenderMetrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class plots many functions to PNG files without opening a window. It
+ * never touches Swing, and runs with `java.awt.headless` set, so it works on
+ * machines with no display.
+ *
+ * Each job is one line of the form
+ * <pre>
+ *     function, reUp, reDo, imUp, imDo, width, height, output.png
+ * </pre>
+ * where the function is in postfix like everywhere else. Jobs can be given as
+ * arguments, one per argument, or read from a file with `-f file` (use `-` for
+ * standard input). Blank lines and lines starting with `#` are skipped.
+ *
+ * With `--frames`, a single argument of the form
+ * <pre>
+ *     function, reUp, reDo, imUp, imDo, width, height, t0, t1, frames, prefix
+ * </pre>
+ * plots the function for `frames` values of `t` from `t0` to `t1`, to
+ * `prefix00000.png` and on.
+ *
+ * With `--profile`, a single argument of the form
+ * <pre>
+ *     function, reUp, reDo, imUp, imDo, width, height[, step]
+ * </pre>
+ * prints how long each token of the function takes when plotted, from
+ * every `step`-th pixel in each direction (4 if not given), instead of
+ * writing anything. It then prints how many operations per pixel the
+ * optimizer removes when the function is plotted, and what is left, as from
+ * `CompiledFunction.toDagString()`.
+ *
+ * Every job shares the default `PlotRenderer`, so the pixels of all the jobs
+ * are computed on one pool of threads. On top of that, several jobs are in
+ * flight at once, one per core. While one job is being encoded to PNG (which
+ * only uses one thread) the others keep the render threads busy. Each image
+ * is streamed to its file a band at a time, so even huge ones do not need
+ * much memory. A job that fails is reported and the rest still run. At the
+ * end, the totals from `RenderMetrics` are printed.
+ *
+ * @see cs.ratnani.Main
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class BatchRenderer {
+
+    // Constants: --------------------------------------------------------------
+
+    private static final String USAGE =
+            "Usage: java cs.ratnani.Main [-f jobfile | job...]\n"
+            + "  where each job is: function, reUp, reDo, imUp, imDo, width, height, output.png\n"
+            + "   or: java cs.ratnani.Main --frames \"function, reUp, reDo, imUp, imDo, width, height, t0, t1, frames, prefix\"\n"
+            + "   or: java cs.ratnani.Main --profile \"function, reUp, reDo, imUp, imDo, width, height[, step]\"";
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final StreamingExporter exporter;
+    private final int inFlight;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param renderer What to plot every job with
+     * @param inFlight How many jobs to work on at once
+     */
+    public BatchRenderer(PlotRenderer renderer, int inFlight){
+        this.exporter = new StreamingExporter(renderer);
+        this.inFlight = inFlight;
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Runs the jobs given on the command line, then prints how fast that
+     * went. Exits with status 1 if any job failed.
+     *
+     * @param args The jobs, or `-f` and a file to read them from
+     */
+    public static void main(String[] args){
+        // This has to happen before anything from AWT is loaded
+        System.setProperty("java.awt.headless", "true");
+        if(args.length == 2 && args[0].equals("--frames"))
+            System.exit(runFrames(args[1]) ? 0 : 1);
+        if(args.length == 2 && args[0].equals("--profile"))
+            System.exit(runProfile(args[1]) ? 0 : 1);
+
+        List<String> lines = new ArrayList<>();
+        try {
+            if(args.length == 2 && args[0].equals("-f"))
+                lines.addAll(readLines(args[1]));
+            else
+                for(String a : args)
+                    lines.add(a);
+        } catch(IOException e){
+            System.err.println("Could not read jobs: " + e.getMessage());
+            System.exit(1);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        boolean ok = true;
+        for(int i = 0; i < lines.size(); i++){
+            String l = lines.get(i).trim();
+            if(l.isEmpty() || l.startsWith("#"))
+                continue;
+            try {
+                jobs.add(Job.parse(l));
+            } catch(IllegalArgumentException e){
+                System.err.println("Job " + (i+1) + ": " + e.getMessage());
+                ok = false;
+            }
+        }
+        if(jobs.isEmpty()){
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        PlotRenderer r = PlotRenderer.getDefault();
+        long start = System.nanoTime();
+        ok &= new BatchRenderer(r, r.getThreads()).runAll(jobs);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d jobs in %.3f s (%.2f jobs/s)%n", jobs.size(), secs, jobs.size() / secs);
+        System.out.println(RenderMetrics.getDefault().snapshot());
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Plots and writes out every job, blocking until they are all done.
+     * Failures are printed to standard error.
+     *
+     * @param jobs What to plot
+     * @return Whether every job succeeded
+     */
+    public boolean runAll(List<Job> jobs){
+        ExecutorService workers = Executors.newFixedThreadPool(inFlight);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for(Job j : jobs)
+                done.add(workers.submit(() -> {
+                    run(j);
+                    return null;
+                }));
+
+            boolean ok = true;
+            for(int i = 0; i < done.size(); i++){
+                try {
+                    done.get(i).get();
+                } catch(ExecutionException e){
+                    System.err.println(jobs.get(i).getOutput() + ": " + e.getCause());
+                    ok = false;
+                } catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return ok;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Plots one job with the exact colors and writes it out as a PNG.
+     *
+     * @throws IOException If the file could not be written
+     * @param j What to plot
+     */
+    public void run(Job j) throws IOException {
+        exporter.export(new RenderJob(j.getFunction(), j.getViewport(), ColorMap.EXACT), null, new File(j.getOutput()));
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Plots a sequence of frames, as described for `--frames`, then prints how
+     * fast that went. Failures are printed to standard error.
+     *
+     * @param line What to plot
+     * @return Whether every frame was written
+     */
+    private static boolean runFrames(String line){
+        String[] p = line.split(",", 11);
+        if(p.length != 11){
+            System.err.println(USAGE);
+            return false;
+        }
+        int frames;
+        Job j;
+        Complex t0, t1;
+        try {
+            j = Job.parse(String.join(",", p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[10]));
+            t0 = Complex.parseComplex(p[7].trim());
+            t1 = Complex.parseComplex(p[8].trim());
+            frames = Integer.parseInt(p[9].trim());
+        } catch(IllegalArgumentException e){
+            System.err.println(e.getMessage());
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            new FrameRenderer(PlotRenderer.getDefault())
+                    .render(j.getFunction(), j.getViewport(), ColorMap.EXACT, t0, t1, frames, j.getOutput());
+        } catch(IOException | IllegalArgumentException e){
+            System.err.println(j.getOutput() + ": " + e);
+            return false;
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d frames in %.3f s (%.2f frames/s)%n", frames, secs, frames / secs);
+        System.out.println(RenderMetrics.getDefault().snapshot());
+        return true;
+    }
+
+    /**
+     * Prints the profile of a function and what the optimizer did to it, as
+     * described for `--profile`.
+     *
+     * @param line What to profile
+     * @return Whether the line was valid
+     */
+    private static boolean runProfile(String line){
+        String[] p = line.split(",");
+        if(p.length != 7 && p.length != 8){
+            System.err.println(USAGE);
+            return false;
+        }
+        try {
+            int w = Integer.parseInt(p[5].trim());
+            int h = Integer.parseInt(p[6].trim());
+            if(w <= 0 || h <= 0)
+                throw new IllegalArgumentException("Size must be positive");
+            System.out.print(ComplexMath.profile(
+                    p[0].trim(),
+                    Double.parseDouble(p[1].trim()),
+                    Double.parseDouble(p[2].trim()),
+                    Double.parseDouble(p[3].trim()),
+                    Double.parseDouble(p[4].trim()),
+                    w,
+                    h,
+                    p.length == 8 ? Integer.parseInt(p[7].trim()) : 4
+            ));
+
+            // Compiled the same way as for plotting, which may not optimize
+            CompiledFunction f = CompiledFunction.compile(p[0].trim());
+            System.out.printf(
+                    "The optimizer removed %d of %d operations per pixel, leaving:%n",
+                    f.getRemovedOps(),
+                    f.getSourceLength()
+            );
+            System.out.print(f.toDagString());
+            return true;
+        } catch(IllegalArgumentException e){
+            // Including bad numbers
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    private static List<String> readLines(String name) throws IOException {
+        if(name.equals("-")){
+            List<String> ret = new ArrayList<>();
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String l;
+            while((l = in.readLine()) != null)
+                ret.add(l);
+            return ret;
+        }
+        return Files.readAllLines(Paths.get(name), StandardCharsets.UTF_8);
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * One plot to make: the function, where to plot it, and where the PNG
+     * goes.
+     */
+    public static final class Job {
+
+        private final CompiledFunction function;
+        private final Viewport viewport;
+        private final String output;
+
+        /**
+         * @param function The function to plot
+         * @param viewport The bounds and size of the plot
+         * @param output The file to write the PNG to
+         */
+        public Job(CompiledFunction function, Viewport viewport, String output){
+            this.function = function;
+            this.viewport = viewport;
+            this.output = output;
+        }
+
+        /**
+         * Reads a job from a line like
+         * `z 2 ^, 2, -2, 2, -2, 800, 800, square.png`.
+         *
+         * @throws IllegalArgumentException If the line is malformed
+         * @param line The job, as described above
+         * @return The job
+         */
+        public static Job parse(String line){
+            String[] p = line.split(",", 8);
+            if(p.length != 8)
+                throw new IllegalArgumentException("Expected 8 fields, got " + p.length);
+            try {
+                int w = Integer.parseInt(p[5].trim());
+                int h = Integer.parseInt(p[6].trim());
+                if(w <= 0 || h <= 0)
+                    throw new IllegalArgumentException("Size must be positive");
+                return new Job(
+                        CompiledFunction.compile(p[0].trim()),
+                        new Viewport(
+                                Double.parseDouble(p[1].trim()),
+                                Double.parseDouble(p[2].trim()),
+                                Double.parseDouble(p[3].trim()),
+                                Double.parseDouble(p[4].trim()),
+                                w,
+                                h
+                        ),
+                        p[7].trim()
+                );
+            } catch(NumberFormatException e){
+                throw new IllegalArgumentException("Bad number: " + e.getMessage());
+            }
+        }
+
+        /** @return The function to plot */
+        public CompiledFunction getFunction(){ return function; }
+
+        /** @return The bounds and size of the plot */
+        public Viewport getViewport(){ return viewport; }
+
+        /** @return The file to write the PNG to */
+        public String getOutput(){ return output; }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+package cs.ratnani.math;
+
+import java.util.Arrays;
+
+
+/**
+ * This class computes a compiled function for many points at once. Like
+ * `Interpreter`, every stack position is a register, but here each register
+ * is a whole column of values: one array of real parts and one of imaginary
+ * parts. Each operation is then a tight loop over the column (see
+ * `ComplexKernels`), so the cost of figuring out what to do next is shared by
+ * every point in the batch, and the JIT gets simple loops it can vectorize.
+ *
+ * Temporary slots, for values the optimizer shared, are more columns after
+ * the ones for the stack.
+ *
+ * Large batches are done in chunks of `CHUNK` points so the columns stay in
+ * the cache. The arithmetic is the same as in `ScalarMath`, so the results
+ * are identical to the other modes. The exception is when it is made to be
+ * fast, in which case the transcendental functions come from `FastKernels`
+ * instead (see `Precision.FAST`).
+ *
+ * If given a `Profile`, each operation is timed over the whole chunk and
+ * added to it. Since that is once per chunk and not once per point, it hardly
+ * slows anything down.
+ *
+ * This class is not thread-safe, as the registers are reused between calls.
+ *
+ * @see EvalMode#BATCH
+ * @see ComplexKernels
+ * @see FastKernels
+ * @see Interpreter
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class BatchInterpreter implements Evaluator {
+
+    // Constants: --------------------------------------------------------------
+
+    // How many points to do at a time
+    static final int CHUNK = 256;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    // For each instruction, the opcode and the registers it uses. Unlike
+    //  `Interpreter`, these are register numbers, not array indices.
+    private final int[] ops;
+    private final int[] dst;
+    private final int[] srcA;
+    private final int[] srcB;
+
+    // The literals, for `OP_CONST` instructions
+    private final double[] constRe;
+    private final double[] constIm;
+
+    // Whether to use `FastKernels` for exp, ln, etc.
+    private final boolean fast;
+
+    // Where to add the time each operation takes, or null not to time them
+    private final Profile profile;
+
+    // One column for each position on the stack
+    private final double[][] regRe;
+    private final double[][] regIm;
+
+    // The parameter, for `OP_T` instructions
+    private double tRe = 0;
+    private double tIm = 0;
+
+    // For `evaluate()`, which is just a batch of one
+    private final double[] oneRe = new double[1];
+    private final double[] oneIm = new double[1];
+
+
+    // Constructors: -----------------------------------------------------------
+
+    BatchInterpreter(CompiledFunction f){
+        this(f, false);
+    }
+
+    /**
+     * @param f The function to compute
+     * @param fast Whether to use the approximations in `FastKernels`
+     */
+    BatchInterpreter(CompiledFunction f, boolean fast){
+        this(f, fast, null);
+    }
+
+    /**
+     * @param f The function to compute
+     * @param fast Whether to use the approximations in `FastKernels`
+     * @param profile Where to add the time each operation takes, or null
+     */
+    BatchInterpreter(CompiledFunction f, boolean fast, Profile profile){
+        this.fast = fast;
+        this.profile = profile;
+        int n = f.getLength();
+        ops = new int[n];
+        dst = new int[n];
+        srcA = new int[n];
+        srcB = new int[n];
+        constRe = new double[n];
+        constIm = new double[n];
+        regRe = new double[f.getMaxDepth() + f.getTemps()][CHUNK];
+        regIm = new double[f.getMaxDepth() + f.getTemps()][CHUNK];
+
+        // Simulate the stack to find out which registers each instruction uses
+        int depth = 0;
+        for(int i = 0; i < n; i++){
+            int op = f.getOp(i);
+            ops[i] = op;
+            switch(CompiledFunction.arityOf(op)){
+                case 0:
+                    dst[i] = depth;
+                    depth++;
+                    break;
+                case 1:
+                    srcA[i] = depth-1;
+                    dst[i] = srcA[i];
+                    break;
+                default:
+                    srcA[i] = depth-2;
+                    srcB[i] = depth-1;
+                    dst[i] = srcA[i];
+                    depth--;
+            }
+            // The temporary slot goes where there is no other register
+            if(op == CompiledFunction.OP_STORE)
+                srcB[i] = f.getMaxDepth() + f.getArg(i);
+            if(op == CompiledFunction.OP_LOAD)
+                srcA[i] = f.getMaxDepth() + f.getArg(i);
+            if(op == CompiledFunction.OP_CONST){
+                constRe[i] = f.getConst(i).getRe();
+                constIm[i] = f.getConst(i).getIm();
+            }
+        }
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    @Override
+    public void setT(double re, double im){
+        tRe = re;
+        tIm = im;
+    }
+
+    @Override
+    public void evaluate(double re, double im, double[] out){
+        oneRe[0] = re;
+        oneIm[0] = im;
+        evaluateBatch(oneRe, oneIm, 1);
+        out[0] = oneRe[0];
+        out[1] = oneIm[0];
+    }
+
+    @Override
+    public void evaluateBatch(double[] re, double[] im, int n){
+        for(int start = 0; start < n; start += CHUNK){
+            int len = Math.min(CHUNK, n - start);
+            run(re, im, start, len);
+            if(profile != null)
+                profile.addPoints(len);
+            // The answer is always in the bottom register
+            System.arraycopy(regRe[0], 0, re, start, len);
+            System.arraycopy(regIm[0], 0, im, start, len);
+        }
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Runs the program on one chunk.
+     *
+     * @param zr The real parts of the inputs
+     * @param zi The imaginary parts of the inputs
+     * @param start Where the chunk starts in `zr` and `zi`
+     * @param len How long the chunk is, at most `CHUNK`
+     */
+    private void run(double[] zr, double[] zi, int start, int len){
+        for(int i = 0; i < ops.length; i++){
+            // Every operation writes over its first argument
+            double[] dr = regRe[dst[i]];
+            double[] di = regIm[dst[i]];
+            double[] br = regRe[srcB[i]];
+            double[] bi = regIm[srcB[i]];
+            long before = profile == null ? 0 : System.nanoTime();
+
+            switch(ops[i]){
+                case CompiledFunction.OP_CONST:
+                    Arrays.fill(dr, 0, len, constRe[i]);
+                    Arrays.fill(di, 0, len, constIm[i]);
+                    break;
+                case CompiledFunction.OP_Z:
+                    System.arraycopy(zr, start, dr, 0, len);
+                    System.arraycopy(zi, start, di, 0, len);
+                    break;
+                case CompiledFunction.OP_T:
+                    Arrays.fill(dr, 0, len, tRe);
+                    Arrays.fill(di, 0, len, tIm);
+                    break;
+                case CompiledFunction.OP_ADD: ComplexKernels.add(dr, di, br, bi, len); break;
+                case CompiledFunction.OP_SUB: ComplexKernels.sub(dr, di, br, bi, len); break;
+                case CompiledFunction.OP_MUL: ComplexKernels.mul(dr, di, br, bi, len); break;
+                case CompiledFunction.OP_DIV: ComplexKernels.div(dr, di, br, bi, len); break;
+                case CompiledFunction.OP_POW:
+                    if(fast) FastKernels.pow(dr, di, br, bi, len);
+                    else ComplexKernels.pow(dr, di, br, bi, len);
+                    break;
+                case CompiledFunction.OP_POW_REAL:
+                    if(fast) FastKernels.powReal(dr, di, br, len);
+                    else ComplexKernels.powReal(dr, di, br, len);
+                    break;
+                case CompiledFunction.OP_SQRT: ComplexKernels.sqrt(dr, di, len); break;
+                case CompiledFunction.OP_CONJ: ComplexKernels.conj(dr, di, len); break;
+                case CompiledFunction.OP_INV: ComplexKernels.inv(dr, di, len); break;
+                case CompiledFunction.OP_EXP:
+                    if(fast) FastKernels.exp(dr, di, len);
+                    else ComplexKernels.exp(dr, di, len);
+                    break;
+                case CompiledFunction.OP_LN:
+                    if(fast) FastKernels.ln(dr, di, len);
+                    else ComplexKernels.ln(dr, di, len);
+                    break;
+                case CompiledFunction.OP_SIN:
+                    if(fast) FastKernels.sin(dr, di, len);
+                    else ComplexKernels.sin(dr, di, len);
+                    break;
+                case CompiledFunction.OP_COS:
+                    if(fast) FastKernels.cos(dr, di, len);
+                    else ComplexKernels.cos(dr, di, len);
+                    break;
+                case CompiledFunction.OP_ABS: ComplexKernels.abs(dr, di, len); break;
+                case CompiledFunction.OP_ARG:
+                    if(fast) FastKernels.arg(dr, di, len);
+                    else ComplexKernels.arg(dr, di, len);
+                    break;
+                case CompiledFunction.OP_NEG: ComplexKernels.neg(dr, di, len); break;
+                case CompiledFunction.OP_STORE:
+                    System.arraycopy(dr, 0, br, 0, len);
+                    System.arraycopy(di, 0, bi, 0, len);
+                    break;
+                case CompiledFunction.OP_LOAD:
+                    System.arraycopy(regRe[srcA[i]], 0, dr, 0, len);
+                    System.arraycopy(regIm[srcA[i]], 0, di, 0, len);
+                    break;
+                case CompiledFunction.OP_RE:
+                    Arrays.fill(di, 0, len, 0.0);
+                    break;
+                default: // OP_IM
+                    System.arraycopy(di, 0, dr, 0, len);
+                    Arrays.fill(di, 0, len, 0.0);
+            }
+
+            if(profile != null)
+                profile.add(ops[i], len, System.nanoTime() - before);
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package cs.ratnani.math;
+
+/**
+ * This interface represents a way to color complex numbers. Colors are packed
+ * into an int, as in `Color.getRGB()`, so nothing has to be allocated.
+ *
+ * @see Complex#getRGB(double, double)
+ * @see ColorTable
+ * @author Ammar Ratnani
+ * @version 2017.05.16
+ */
+public interface ColorMap {
+
+    /** Colors exactly as `Complex.getColor()` does */
+    ColorMap EXACT = new ColorMap() {
+        @Override
+        public int getRGB(double re, double im){
+            return Complex.getRGB(re, im);
+        }
+
+        @Override
+        public String getId(){
+            return "exact-1";
+        }
+    };
+
+    /**
+     * @param re The real part of the number
+     * @param im The imaginary part of the number
+     * @return The color of the number in the default sRGB color model
+     */
+    int getRGB(double re, double im);
+
+    /**
+     * Names this way of coloring, so colors saved in one run can be reused in
+     * the next. The name has to change whenever the colors do, so it should
+     * have a version number and any settings in it.
+     *
+     * @return The name, or null if colors from this map should not be saved
+     */
+    default String getId(){
+        return null;
+    }
+
+    /**
+     * Colors `n` numbers at once.
+     *
+     * @param re The real parts of the numbers
+     * @param im The imaginary parts of the numbers
+     * @param n How many numbers to color
+     * @param rgb Where to put the colors
+     * @param off Where in `rgb` to put the first color
+     */
+    default void getRGB(double[] re, double[] im, int n, int[] rgb, int off){
+        for(int k = 0; k < n; k++)
+            rgb[off + k] = getRGB(re[k], im[k]);
+    }
+
+}
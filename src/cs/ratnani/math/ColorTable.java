@@ -0,0 +1,219 @@
+package cs.ratnani.math;
+
+/**
+ * This class colors complex numbers like `Complex.getColor()`, but uses
+ * lookup tables instead of `Math.atan2`, `Math.pow`, and `%`.
+ *
+ * Every channel of the color is `m + C*k`, where `C` and `m` only depend on
+ * the lightness and `k` only depends on the hue. So there are two tables:
+ * <ul>
+ *     <li>The hue wheel, which holds `k` for red, green, and blue. It is
+ *         indexed by which octant the number is in and by min(|re|,|im|) /
+ *         max(|re|,|im|), so no angle ever has to be computed.</li>
+ *     <li>The lightness curve `(1 - 2^-|z|) * .68`, sampled evenly for |z|
+ *         from 0 to `ABS_MAX` and interpolated linearly. Past `ABS_MAX` the
+ *         curve is flat to well within a color level.</li>
+ * </ul>
+ *
+ * With `hueSteps` entries per octant, the angle used is off by at most
+ * 1/(2*hueSteps) radians, which moves a channel by at most 0.48/hueSteps. The
+ * lightness is off by at most 0.04/lightSteps^2. The original color wheel
+ * jumps at five seams (arg = 1-pi, 2-pi, ... 5-pi), and no single `k` is right
+ * on both sides of one, so the entries a seam goes through are not used:
+ * numbers that fall in them are colored by `Complex.getRGB()` itself. With
+ * the default resolution (1024 and 256) that makes every channel of every
+ * color within 1/255 of `Complex.getColor()`, with no exceptions.
+ *
+ * Objects of this class never change, so one can be shared between threads.
+ *
+ * @see Complex#getRGB(double, double)
+ * @author Ammar Ratnani
+ * @version 2017.05.16
+ */
+public class ColorTable implements ColorMap {
+
+    // Constants: --------------------------------------------------------------
+
+    // Coefficient to specify the maximum value of H, as in `Complex`
+    private static final double C_H = .68;
+
+    // Where the lightness table stops
+    private static final int ABS_MAX = 32;
+
+    private static ColorTable defaultTable;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final int hueSteps;
+    private final int lightSteps;
+
+    // The hue wheel: `k` for each channel, `hueSteps` entries for each octant
+    private final double[] kR;
+    private final double[] kG;
+    private final double[] kB;
+    // Whether each entry of the hue wheel has a seam in it
+    private final boolean[] seam;
+
+    // The lightness for |z| = i / lightSteps, with one extra entry at the end
+    //  so interpolating never goes off the end
+    private final double[] light;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @throws IllegalArgumentException If either resolution is not positive
+     * @param hueSteps How many entries the hue wheel has for each of its eight
+     *                 octants
+     * @param lightSteps How many entries the lightness curve has for each unit
+     *                   of |z|
+     */
+    public ColorTable(int hueSteps, int lightSteps){
+        if(hueSteps <= 0 || lightSteps <= 0)
+            throw new IllegalArgumentException("Table resolution must be positive");
+        this.hueSteps = hueSteps;
+        this.lightSteps = lightSteps;
+
+        kR = new double[8*hueSteps];
+        kG = new double[8*hueSteps];
+        kB = new double[8*hueSteps];
+        seam = new boolean[8*hueSteps];
+        for(int o = 0; o < 8; o++){
+            for(int i = 0; i < hueSteps; i++){
+                // Use the middle of each entry
+                setHue(o*hueSteps + i, hueAt(o, (i + .5) / hueSteps));
+                // Check a little past both ends, so rounding in `getRGB()`
+                //  cannot put a number in the wrong entry unnoticed
+                double lo = hueAt(o, Math.max(0, (i - .01) / hueSteps));
+                double hi = hueAt(o, Math.min(1, (i + 1.01) / hueSteps));
+                // Going from 2*pi back to 0 is not a seam, see `sector()`
+                seam[o*hueSteps + i] = Math.abs(sector(lo) - sector(hi)) == 1;
+            }
+        }
+
+        light = new double[ABS_MAX*lightSteps + 2];
+        for(int i = 0; i < light.length; i++)
+            light[i] = (1 - Math.pow(2.0, -1.0 * i / lightSteps)) * C_H;
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return How many entries the hue wheel has for each octant */
+    public int getHueSteps(){ return hueSteps; }
+
+    /** @return How many entries the lightness curve has for each unit of |z| */
+    public int getLightSteps(){ return lightSteps; }
+
+    /** @return A table with the default resolution, shared by everyone */
+    public static synchronized ColorTable getDefault(){
+        if(defaultTable == null)
+            defaultTable = new ColorTable(1024, 256);
+        return defaultTable;
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    @Override
+    public String getId(){
+        return "table-2-" + hueSteps + "x" + lightSteps;
+    }
+
+    @Override
+    public int getRGB(double re, double im){
+        // If either part of the number is NaN or +/-Infinity, return white
+        if(Double.isNaN(re) || Double.isInfinite(re)
+                || Double.isNaN(im) || Double.isInfinite(im)){
+            return 0xFFFFFFFF;
+        }
+
+        // Find the octant and the ratio within it
+        double ax = Math.abs(re);
+        double ay = Math.abs(im);
+        int o = 0;
+        double t;
+        if(ay <= ax){
+            t = ax == 0 ? 0 : ay / ax;
+        } else {
+            t = ax / ay;
+            o |= 1;
+        }
+        if(re < 0)
+            o |= 2;
+        if(im < 0)
+            o |= 4;
+        int h = o*hueSteps + Math.min((int) (t * hueSteps), hueSteps - 1);
+        // The table cannot be right on both sides of a seam
+        if(seam[h])
+            return Complex.getRGB(re, im);
+
+        // Interpolate the lightness
+        double a = Math.sqrt(re*re + im*im) * lightSteps;
+        double L;
+        if(a < ABS_MAX*lightSteps){
+            int i = (int) a;
+            double frac = a - i;
+            L = light[i] + frac*(light[i+1] - light[i]);
+        } else {
+            L = light[light.length - 1];
+        }
+
+        // Same as in `Complex.getRGB()`
+        double C = 1 - Math.abs(2*L - 1);
+        double m = L - .5*C;
+        return 0xFF000000
+                | ((int) (255*(m + C*kR[h])) << 16)
+                | ((int) (255*(m + C*kG[h])) << 8)
+                | (int) (255*(m + C*kB[h]));
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * @param o The octant, as in `getRGB()`
+     * @param t min(|re|,|im|) / max(|re|,|im|)
+     * @return The hue `Complex.getRGB()` computes for that octant and ratio
+     */
+    private static double hueAt(int o, double t){
+        double a = Math.atan(t);
+        // Undo the octant reduction done in `getRGB()`
+        if((o & 1) != 0)
+            a = Math.PI/2 - a;
+        if((o & 2) != 0)
+            a = Math.PI - a;
+        if((o & 4) != 0)
+            a = -a;
+        return (Math.PI + a) % (2*Math.PI);
+    }
+
+    /**
+     * @param H A hue from `hueAt()`
+     * @return Which formula `Complex.getRGB()` uses for it. Hues from 6 to
+     *         2*pi use the same one as 5, whose colors wrap around smoothly
+     *         to those of 0.
+     */
+    private static int sector(double H){
+        return Math.min((int) H, 5);
+    }
+
+    /**
+     * Fills in the hue wheel at `i` with `k` for each channel, as
+     * `Complex.getRGB()` computes them for a hue of `H`.
+     */
+    private void setHue(int i, double H){
+        double Hp = H / (Math.PI/3);
+        double X = 1 - Math.abs(Hp%2 - 1);
+        switch((int) H){
+            case 0: kR[i] = 1; kG[i] = X; kB[i] = 0; break;
+            case 1: kR[i] = X; kG[i] = 1; kB[i] = 0; break;
+            case 2: kR[i] = 0; kG[i] = 1; kB[i] = X; break;
+            case 3: kR[i] = 0; kG[i] = X; kB[i] = 1; break;
+            case 4: kR[i] = X; kG[i] = 0; kB[i] = 1; break;
+            default: kR[i] = 1; kG[i] = 0; kB[i] = X;
+        }
+    }
+
+}
@@ -0,0 +1,644 @@
+package cs.ratnani.math;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * This class represents a function in postfix notation that has already been
+ * parsed. Parsing the string (splitting it, running the regexes in
+ * `Complex.parseComplex`, and looking up each operator) only happens once, in
+ * `compile`. After that, the function can be evaluated at as many points as
+ * needed without touching the string again.
+ *
+ * Unless asked not to, `compile` also runs the result through `Optimizer`,
+ * which folds the parts that do not depend on `z` or `t`, shares the parts
+ * that are computed more than once, and removes operations that do nothing,
+ * all without changing a single result. Whether it does by default is read
+ * from the system property `cs.ratnani.optimize`, which is on unless set to
+ * "false". Evaluators for `Precision.FAST` also get the optimizations that
+ * change the last few bits (ex. faster powers); see `Optimizer`.
+ *
+ * Objects of this class never change once compiled, so one can be shared
+ * between threads.
+ *
+ * Besides `z`, a function can use `t`, a parameter that is the same at every
+ * point but can change between plots (ex. for each frame of an animation).
+ * It is set on each `Evaluator` with `setT()`, and is 0 until then, so the
+ * same compiled function can be reused for every value of `t`.
+ *
+ * @see ComplexMath#parsePostfix(String, Complex)
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class CompiledFunction {
+
+    // Constants: --------------------------------------------------------------
+
+    // The opcodes for each token
+    // Leaves: these push something
+    static final int OP_CONST = 0;
+    static final int OP_Z = 1;
+    // Binary: these pop two and push one
+    static final int OP_ADD = 2;
+    static final int OP_SUB = 3;
+    static final int OP_MUL = 4;
+    static final int OP_DIV = 5;
+    static final int OP_POW = 6;
+    // Unary: these pop one and push one
+    static final int OP_CONJ = 7;
+    static final int OP_INV = 8;
+    static final int OP_EXP = 9;
+    static final int OP_LN = 10;
+    static final int OP_SIN = 11;
+    static final int OP_COS = 12;
+    static final int OP_ABS = 13;
+    static final int OP_ARG = 14;
+    static final int OP_RE = 15;
+    static final int OP_IM = 16;
+    // Only made by `Optimizer`, never parsed
+    static final int OP_NEG = 17;
+    // Copies the top of the stack into temporary slot `args[i]`, leaving it
+    //  on the stack
+    static final int OP_STORE = 18;
+    // Pushes temporary slot `args[i]`
+    static final int OP_LOAD = 19;
+    // Raises to a real power in polar form, using only the real part of the
+    //  exponent
+    static final int OP_POW_REAL = 20;
+    // The principal square root, without any trigonometry
+    static final int OP_SQRT = 21;
+    // A leaf: pushes the parameter `t`. It comes last so the old opcodes keep
+    //  their numbers in `toCanonicalBytes()`.
+    static final int OP_T = 22;
+
+    // The name of each opcode, for `toDagString()` and `Profile`
+    private static final String[] NAMES = {
+            "const", "z", "+", "-", "*", "/", "^", "conj", "inv", "exp", "ln",
+            "sin", "cos", "abs", "arg", "re", "im", "neg", "store", "load", "^real", "sqrt",
+            "t"
+    };
+
+    // Whether to optimize when not told
+    private static final boolean OPTIMIZE =
+            !"false".equalsIgnoreCase(System.getProperty("cs.ratnani.optimize"));
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    // The string this was compiled from
+    private final String source;
+    // Whether this was run through `Optimizer`
+    private final boolean optimized;
+    // How many operations the string had before it was optimized
+    private final int sourceLength;
+
+    // The program, one opcode per token
+    private final int[] ops;
+    // The literal for each `OP_CONST`, null for every other opcode
+    private final Complex[] consts;
+    // The temporary slot for each `OP_STORE` and `OP_LOAD`, 0 for every other
+    //  opcode
+    private final int[] args;
+
+    // The most values that will ever be on the stack at once
+    private final int maxDepth;
+    // How many temporary slots there are
+    private final int temps;
+
+    // The class made for `EvalMode.GENERATED`, made the first time it is used
+    private Class<? extends Evaluator> generated;
+    private boolean triedGenerating = false;
+
+    // The evaluator `evaluate()` uses, made the first time it is called so
+    //  asking for one value at a time (ex. on every mouse move) does not make
+    //  (or, in `EvalMode.GENERATED`, generate) a new one each time
+    private Evaluator oneOff;
+
+    // This function with every optimization, for `Precision.FAST`, made the
+    //  first time it is used
+    private CompiledFunction approximate;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    private CompiledFunction(String source, boolean optimized, int sourceLength,
+                             int[] ops, Complex[] consts, int[] args){
+        this.source = source;
+        this.optimized = optimized;
+        this.sourceLength = sourceLength;
+        this.ops = ops;
+        this.consts = consts;
+        this.args = args;
+
+        int depth = 0;
+        int maxDepth = 0;
+        int temps = 0;
+        for(int i = 0; i < ops.length; i++){
+            depth = depth - arityOf(ops[i]) + 1;
+            maxDepth = Math.max(maxDepth, depth);
+            if(ops[i] == OP_STORE)
+                temps = Math.max(temps, args[i] + 1);
+        }
+        this.maxDepth = maxDepth;
+        this.temps = temps;
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return The postfix string this function was compiled from */
+    public String getSource(){ return source; }
+
+    /** @return The number of operations done for each point */
+    public int getLength(){ return ops.length; }
+
+    /** @return The number of tokens in the source */
+    public int getSourceLength(){ return sourceLength; }
+
+    /**
+     * @return How many operations the optimizer removed from each point, out
+     *         of the number of tokens in the source. Copying a shared value
+     *         into or out of a temporary slot is not counted as an operation.
+     *         This can be negative when `sin`, `cos`, or `^` were expanded to
+     *         share their parts, or a power was turned into multiplications,
+     *         both of which take more (but much cheaper) operations.
+     */
+    public int getRemovedOps(){
+        int n = 0;
+        for(int op : ops)
+            if(op != OP_STORE && op != OP_LOAD)
+                n++;
+        return sourceLength - n;
+    }
+
+    /** @return The most values that will ever be on the stack at once */
+    int getMaxDepth(){ return maxDepth; }
+
+    /** @return How many temporary slots `OP_STORE` and `OP_LOAD` use */
+    int getTemps(){ return temps; }
+
+    /** @return The opcode at position `i` */
+    int getOp(int i){ return ops[i]; }
+
+    /** @return The literal at position `i`, or null if it is not `OP_CONST` */
+    Complex getConst(int i){ return consts[i]; }
+
+    /** @return The temporary slot at position `i`, if it is `OP_STORE` or `OP_LOAD` */
+    int getArg(int i){ return args[i]; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * This method will take a string in postfix notation and parse it into a
+     * function that can be evaluated later, optimizing it if that is on by
+     * default.
+     *
+     * @throws IllegalArgumentException When the string is not valid postfix
+     * @param s The operations in postfix. Use `z` to represent the complex
+     *          number supplied when evaluating, and `t` for the parameter
+     * @return The compiled function
+     * @see #compile(String, boolean)
+     */
+    public static CompiledFunction compile(String s){
+        return compile(s, OPTIMIZE);
+    }
+
+    /**
+     * This method will take a string in postfix notation and parse it into a
+     * function that can be evaluated later. Each token is checked here, as is
+     * the shape of the stack, so evaluating the result will never fail.
+     *
+     * @throws IllegalArgumentException When the string is not valid postfix
+     * @param s The operations in postfix. Use `z` to represent the complex
+     *          number supplied when evaluating, and `t` for the parameter
+     * @param optimize Whether to run the function through `Optimizer`. It is
+     *                 computed exactly as `ComplexMath` would either way.
+     * @return The compiled function
+     */
+    public static CompiledFunction compile(String s, boolean optimize){
+        return compile(s, optimize, true);
+    }
+
+    /**
+     * Same as above, but optimizing with the changes that are not exact too
+     * if `exact` is false.
+     */
+    private static CompiledFunction compile(String s, boolean optimize, boolean exact){
+        ArrayList<Integer> opList = new ArrayList<>();
+        ArrayList<Complex> constList = new ArrayList<>();
+
+        // Keep track of the stack size as we go so we can find errors now
+        //  instead of at every pixel
+        int depth = 0;
+
+        String[] tokens = s.split(" ");
+        for(String t : tokens){
+            int op;
+            Complex lit = null;
+
+            // If the next token is a complex number
+            try{
+                lit = Complex.parseComplex(t);
+                op = OP_CONST;
+            } catch(NumberFormatException e){
+                // It is an operator, "z", or "t"
+                op = opcodeOf(t);
+            }
+
+            // Check that there is enough on the stack, just like popping would
+            int arity = arityOf(op);
+            if(depth < arity)
+                // The string is not formatted correctly
+                throw new IllegalArgumentException("Not valid postfix string");
+            depth = depth - arity + 1;
+
+            opList.add(op);
+            constList.add(lit);
+        }
+
+        if(depth != 1)
+            // The string is not formatted correctly
+            throw new IllegalArgumentException("Not valid postfix string");
+
+        int[] ops = toArray(opList);
+        Complex[] consts = constList.toArray(new Complex[constList.size()]);
+        if(!optimize)
+            return new CompiledFunction(s, false, ops.length, ops, consts, new int[ops.length]);
+
+        ArrayList<Integer> newOps = new ArrayList<>();
+        ArrayList<Complex> newConsts = new ArrayList<>();
+        ArrayList<Integer> newArgs = new ArrayList<>();
+        Optimizer.optimize(ops, consts, exact, newOps, newConsts, newArgs);
+        return new CompiledFunction(
+                s,
+                true,
+                ops.length,
+                toArray(newOps),
+                newConsts.toArray(new Complex[newConsts.size()]),
+                toArray(newArgs)
+        );
+    }
+
+    /**
+     * Makes a function straight from a program that is known to be valid and
+     * does not use temporary slots, such as part of one being optimized.
+     *
+     * @param opList The opcodes
+     * @param constList The literal for each `OP_CONST`, null for every other
+     *                  opcode
+     * @return The function
+     */
+    static CompiledFunction of(ArrayList<Integer> opList, ArrayList<Complex> constList){
+        int[] ops = toArray(opList);
+        return new CompiledFunction(
+                null,
+                false,
+                ops.length,
+                ops,
+                constList.toArray(new Complex[constList.size()]),
+                new int[ops.length]
+        );
+    }
+
+    /**
+     * Makes a new object to compute this function at many points without
+     * allocating, using the default mode. Each thread needs its own.
+     *
+     * @return An evaluator for this function
+     * @see EvalMode#getDefault()
+     */
+    public Evaluator newEvaluator(){
+        return newEvaluator(EvalMode.getDefault());
+    }
+
+    /**
+     * Makes a new object to compute this function at many points without
+     * allocating. Each thread needs its own.
+     *
+     * @param mode How the function should be computed
+     * @return An evaluator for this function
+     */
+    public Evaluator newEvaluator(EvalMode mode){
+        if(mode == EvalMode.GENERATED){
+            Class<? extends Evaluator> c = getGenerated();
+            if(c != null){
+                try{
+                    return c.getConstructor().newInstance();
+                } catch(ReflectiveOperationException e){
+                    // Fall through to the interpreter
+                }
+            }
+        }
+        if(mode == EvalMode.BATCH)
+            return new BatchInterpreter(this);
+        return new Interpreter(this);
+    }
+
+    /**
+     * Makes a new object to compute this function at many points without
+     * allocating, to the precision given. Each thread needs its own.
+     *
+     * @param mode How the function should be computed, ignored if `precision`
+     *  is `FAST`
+     * @param precision How accurate the results have to be. If `FAST` and
+     *                  this function was optimized, the evaluator also uses
+     *                  the optimizations that are not exact.
+     * @return An evaluator for this function
+     */
+    public Evaluator newEvaluator(EvalMode mode, Precision precision){
+        if(precision == Precision.FAST)
+            return new BatchInterpreter(approximate(), true);
+        return newEvaluator(mode);
+    }
+
+    /**
+     * Makes a new object to compute this function like `EvalMode.BATCH`, but
+     * that also times each operation and adds it to a profile. The results
+     * are the same; it is only a bit slower. For one entry per token, the
+     * function should be compiled without optimizing.
+     *
+     * @param profile Where to add the time each operation takes
+     * @return An evaluator for this function
+     * @see ComplexMath#profile(String, double, double, double, double, int, int, int)
+     */
+    public Evaluator newEvaluator(Profile profile){
+        return new BatchInterpreter(this, false, profile);
+    }
+
+    /**
+     * Evaluates this function at the complex number supplied. This is meant
+     * for one-off values; use `newEvaluator()` to compute many.
+     *
+     * @param z The complex number to use for `z`
+     * @return The value of this function at `z`
+     */
+    public Complex evaluate(Complex z){
+        return evaluate(z, new Complex(0, 0));
+    }
+
+    /**
+     * Evaluates this function at the complex number supplied, with `t` set.
+     * This is meant for one-off values; use `newEvaluator()` to compute many.
+     * Every call shares one evaluator, so calls from different threads wait
+     * for each other.
+     *
+     * @param z The complex number to use for `z`
+     * @param t The complex number to use for `t`
+     * @return The value of this function at `z`
+     */
+    public synchronized Complex evaluate(Complex z, Complex t){
+        if(oneOff == null)
+            oneOff = newEvaluator();
+        return evaluate(oneOff, z, t);
+    }
+
+    /**
+     * Evaluates this function once at the complex number supplied, with an
+     * evaluator that costs nothing to make and is then thrown away. This is
+     * for functions that are only ever computed once (ex. by
+     * `ComplexMath.parsePostfix`), where generating a class would be wasted.
+     *
+     * @param z The complex number to use for `z`
+     * @return The value of this function at `z`
+     */
+    Complex evaluateOnce(Complex z){
+        return evaluate(new Interpreter(this), z, new Complex(0, 0));
+    }
+
+    /**
+     * @return Whether this function uses `t`, so that plots of it for
+     *         different values of `t` can differ
+     */
+    public boolean usesT(){
+        for(int op : ops)
+            if(op == OP_T)
+                return true;
+        return false;
+    }
+
+    /**
+     * Lists the operations done for each point, one per line, as a graph of
+     * values. Each line computes a new value from values on earlier lines, so
+     * a value used in more than one place (ex. after `Optimizer` shared a
+     * common subexpression) is only computed once, and is referred to by
+     * name everywhere it is used. For example, "z sin z sin *" is:
+     * <pre>
+     *     %0 = z
+     *     %1 = sin %0
+     *     %2 = * %1 %1
+     * </pre>
+     *
+     * @return The listing
+     */
+    public String toDagString(){
+        StringBuilder ret = new StringBuilder();
+        // The value in each stack position and temporary slot
+        int[] stack = new int[maxDepth];
+        int[] slots = new int[temps];
+        int top = 0;
+        int values = 0;
+
+        for(int i = 0; i < ops.length; i++){
+            int op = ops[i];
+            if(op == OP_STORE){
+                slots[args[i]] = stack[top-1];
+                continue;
+            }
+            if(op == OP_LOAD){
+                stack[top++] = slots[args[i]];
+                continue;
+            }
+
+            ret.append('%').append(values).append(" = ");
+            if(op == OP_CONST)
+                ret.append(consts[i]);
+            else
+                ret.append(NAMES[op]);
+            int arity = arityOf(op);
+            for(int k = top - arity; k < top; k++)
+                ret.append(" %").append(stack[k]);
+            ret.append('\n');
+
+            top -= arity;
+            stack[top++] = values++;
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Writes out what `equals()` compares: every opcode, the bits of every
+     * literal, and every temporary slot. Two functions are equal exactly when
+     * these are, so this can be used as a key that lasts between runs.
+     *
+     * @return The opcodes and literals of this function
+     */
+    public byte[] toCanonicalBytes(){
+        int lits = 0;
+        for(int op : ops)
+            if(op == OP_CONST)
+                lits++;
+
+        int slotOps = 0;
+        for(int op : ops)
+            if(op == OP_STORE || op == OP_LOAD)
+                slotOps++;
+
+        ByteBuffer ret = ByteBuffer.allocate(ops.length + 16*lits + 4*slotOps);
+        for(int i = 0; i < ops.length; i++){
+            ret.put((byte) ops[i]);
+            if(ops[i] == OP_CONST){
+                ret.putLong(Double.doubleToLongBits(consts[i].getRe()));
+                ret.putLong(Double.doubleToLongBits(consts[i].getIm()));
+            }
+            if(ops[i] == OP_STORE || ops[i] == OP_LOAD)
+                ret.putInt(args[i]);
+        }
+        return ret.array();
+    }
+
+    /** @return The postfix string this function was compiled from */
+    public String toString(){ return source; }
+
+    /**
+     * Two compiled functions are equal if they do the same operations with
+     * the same literals, even if they were written differently (ex. "z 2 *"
+     * and "z 2.0+0i *").
+     *
+     * @param o The object to compare to
+     * @return Whether `o` is the same function
+     */
+    @Override
+    public boolean equals(Object o){
+        if(this == o)
+            return true;
+        if(!(o instanceof CompiledFunction))
+            return false;
+        CompiledFunction f = (CompiledFunction) o;
+        if(!Arrays.equals(ops, f.ops) || !Arrays.equals(args, f.args))
+            return false;
+        for(int i = 0; i < ops.length; i++){
+            if(ops[i] == OP_CONST && !sameBits(consts[i], f.consts[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return A hash of the operations and literals, agreeing with `equals()` */
+    @Override
+    public int hashCode(){
+        int ret = 31*Arrays.hashCode(ops) + Arrays.hashCode(args);
+        for(int i = 0; i < ops.length; i++){
+            if(ops[i] == OP_CONST){
+                ret = 31*ret + Double.hashCode(consts[i].getRe());
+                ret = 31*ret + Double.hashCode(consts[i].getIm());
+            }
+        }
+        return ret;
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * @return This function with every optimization, including the ones that
+     *         change results (see `Optimizer`), or this function itself if it
+     *         was not optimized at all
+     */
+    private synchronized CompiledFunction approximate(){
+        if(approximate == null)
+            approximate = optimized ? compile(source, true, false) : this;
+        return approximate;
+    }
+
+    /** @return Whether `a` and `b` have exactly the same parts */
+    private static boolean sameBits(Complex a, Complex b){
+        return Double.doubleToLongBits(a.getRe()) == Double.doubleToLongBits(b.getRe())
+                && Double.doubleToLongBits(a.getIm()) == Double.doubleToLongBits(b.getIm());
+    }
+
+    private static Complex evaluate(Evaluator e, Complex z, Complex t){
+        double[] out = new double[2];
+        e.setT(t.getRe(), t.getIm());
+        e.evaluate(z.getRe(), z.getIm(), out);
+        return new Complex(out[0], out[1]);
+    }
+
+    private static int[] toArray(ArrayList<Integer> list){
+        int[] ret = new int[list.size()];
+        for(int i = 0; i < ret.length; i++)
+            ret[i] = list.get(i);
+        return ret;
+    }
+
+    /**
+     * Generates the class for `EvalMode.GENERATED` the first time it is
+     * needed, and remembers it (or that it failed) after that.
+     *
+     * @return The generated class, or null if it could not be generated
+     */
+    private synchronized Class<? extends Evaluator> getGenerated(){
+        if(!triedGenerating){
+            generated = EvaluatorGenerator.generate(this);
+            triedGenerating = true;
+        }
+        return generated;
+    }
+
+    /**
+     * @throws IllegalArgumentException When `t` is not an operator, "z", or
+     *         "t"
+     * @param t The token to look up
+     * @return The opcode for `t`
+     */
+    private static int opcodeOf(String t){
+        switch(t){
+            case "z": return OP_Z;
+            case "t": return OP_T;
+            case "+": return OP_ADD;
+            case "-": return OP_SUB;
+            case "*": return OP_MUL;
+            case "/": return OP_DIV;
+            case "^": return OP_POW;
+            case "conj": return OP_CONJ;
+            case "inv": return OP_INV;
+            case "exp": return OP_EXP;
+            case "ln": return OP_LN;
+            case "sin": return OP_SIN;
+            case "cos": return OP_COS;
+            case "abs": return OP_ABS;
+            case "arg": return OP_ARG;
+            case "re": return OP_RE;
+            case "im": return OP_IM;
+            default: throw new IllegalArgumentException("Token '" + t + "' not defined");
+        }
+    }
+
+    /**
+     * @param op An opcode
+     * @return The token for `op`, or a name for it if it has none
+     */
+    static String nameOf(int op){
+        return NAMES[op];
+    }
+
+    /** @return How many opcodes there are */
+    static int opcodes(){
+        return NAMES.length;
+    }
+
+    /**
+     * @param op An opcode
+     * @return How many values `op` pops off the stack
+     */
+    static int arityOf(int op){
+        if(op == OP_CONST || op == OP_Z || op == OP_LOAD || op == OP_T)
+            return 0;
+        if(op <= OP_POW || op == OP_POW_REAL)
+            return 2;
+        return 1;
+    }
+
+}
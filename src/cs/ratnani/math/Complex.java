@@ -6,8 +6,8 @@ import java.awt.*;
 /**
  * This class represents a complex number. It has a constructor for the re-im
  * representation and has methods to access this number's real part, imaginary
- * part, complex modulus (r), and complex argument (theta). It also has a
- * method to compute the color of this number, and to parse it from a String.
+ * part, complex modulus (r), and complex argument (theta). It also has
+ * methods to compute the color of this number, and to parse it from a String.
  *
  * @see ComplexMath
  * @author Ammar Ratnani
@@ -91,22 +91,37 @@ public class Complex {
      * It will return white if either is `NaN` or +/-Infinity.
      *
      * @return The color of this number
+     * @see #getRGB(double, double)
      */
     public Color getColor(){
+        return new Color(getRGB(re, im));
+    }
+
+    /**
+     * Returns the color of re + im*i, exactly as `getColor()` would, but
+     * packed into an int (as in `Color.getRGB()`) so that nothing has to be
+     * allocated. It will return white if either is `NaN` or +/-Infinity.
+     *
+     * @param re The real part of the number
+     * @param im The imaginary part of the number
+     * @return The color of the number in the default sRGB color model
+     * @see ColorTable
+     */
+    public static int getRGB(double re, double im){
         // Coefficient to specify the maximum value of H
         double c_H = .68;
 
         // If either part of the number is NaN or +/-Infinity, return white
         if(Double.isNaN(re) || Double.isInfinite(re)
                 || Double.isNaN(im) || Double.isInfinite(im)){
-            return Color.WHITE;
+            return 0xFFFFFFFF;
         }
 
         // HLS value as specified on Wikipeida:
         //  https://en.wikipedia.org/wiki/Color_wheel_graphs_of_complex_functions
-        double H = (Math.PI + getArg()) % (2*Math.PI);
+        double H = (Math.PI + Math.atan2(im, re)) % (2*Math.PI);
             // We do mod 2*pi so H is never over 2*pi
-        double L = (1 - Math.pow(2.0, -1*getAbs())) * c_H;
+        double L = (1 - Math.pow(2.0, -1*Math.sqrt(re*re + im*im))) * c_H;
             // Coefficient to prevent the color from being too white
         double S = 1.0;
 
@@ -157,7 +172,10 @@ public class Complex {
         B += m;
 
         // R, G, and B are between 0 and 1, so we have to multiply by 255
-        return new Color((int) (255*R), (int) (255*G), (int) (255*B));
+        return 0xFF000000
+                | ((int) (255*R) << 16)
+                | ((int) (255*G) << 8)
+                | (int) (255*B);
     }
 
     /**
@@ -0,0 +1,258 @@
+package cs.ratnani.math;
+
+/**
+ * This class contains the functions in `ComplexMath`, but each one works on a
+ * whole column of complex numbers at once. A column is split into two arrays:
+ * one of real parts and one of imaginary parts. Every function writes its
+ * result over its first argument.
+ *
+ * The arithmetic (`add` through `abs`) is done with `VectorKernels` when it
+ * can be, which is when:
+ * <ul>
+ *     <li>the program was run with `--add-modules jdk.incubator.vector`,</li>
+ *     <li>the machine's vectors hold more than one double, and</li>
+ *     <li>the system property `cs.ratnani.vector` is not "false".</li>
+ * </ul>
+ * That is decided once, when this class is loaded. `VectorKernels` does as
+ * many whole vectors as fit, and the loops here do whatever is left (or all
+ * of it, if vectors are not used). The functions that need `Math.exp`,
+ * `Math.sin`, etc. are always done one point at a time, but are kept free of
+ * branches.
+ *
+ * As with `ScalarMath`, the arithmetic is exactly what `ComplexMath` does, so
+ * the results are identical down to the bit.
+ *
+ * @see BatchInterpreter
+ * @see ScalarMath
+ * @author Ammar Ratnani
+ * @version 2017.05.16
+ */
+final class ComplexKernels {
+
+    // Constants: --------------------------------------------------------------
+
+    // What to use for the arithmetic a vector at a time, or null to do it one
+    //  point at a time
+    static final VectorArithmetic VECTOR = loadVectors();
+
+
+    private ComplexKernels(){}
+
+
+    // Arithmetic: -------------------------------------------------------------
+
+    /** a = a + b, for the first `n` elements */
+    static void add(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        int j = VECTOR != null ? VECTOR.add(ar, ai, br, bi, n) : 0;
+        for(; j < n; j++){
+            ar[j] = ar[j] + br[j];
+            ai[j] = ai[j] + bi[j];
+        }
+    }
+
+    /** a = a - b, for the first `n` elements */
+    static void sub(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        int j = VECTOR != null ? VECTOR.sub(ar, ai, br, bi, n) : 0;
+        for(; j < n; j++){
+            ar[j] = ar[j] - br[j];
+            ai[j] = ai[j] - bi[j];
+        }
+    }
+
+    /** a = a * b, for the first `n` elements */
+    static void mul(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        int j = VECTOR != null ? VECTOR.mul(ar, ai, br, bi, n) : 0;
+        for(; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double yr = br[j], yi = bi[j];
+            ar[j] = xr*yr - xi*yi;
+            ai[j] = xi*yr + xr*yi;
+        }
+    }
+
+    /** a = a / b, for the first `n` elements */
+    static void div(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        // a / b == a * (1 / b)
+        int j = VECTOR != null ? VECTOR.div(ar, ai, br, bi, n) : 0;
+        for(; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double yr = br[j], yi = bi[j];
+            double denom = yr*yr + yi*yi;
+            double vr = yr/denom;
+            double vi = -1 * (yi/denom);
+            ar[j] = xr*vr - xi*vi;
+            ai[j] = xi*vr + xr*vi;
+        }
+    }
+
+    /** a = conj(a), for the first `n` elements */
+    static void conj(double[] ar, double[] ai, int n){
+        int j = VECTOR != null ? VECTOR.conj(ar, ai, n) : 0;
+        for(; j < n; j++)
+            ai[j] = -1*ai[j];
+    }
+
+    /** a = -a, for the first `n` elements */
+    static void neg(double[] ar, double[] ai, int n){
+        int j = VECTOR != null ? VECTOR.neg(ar, ai, n) : 0;
+        for(; j < n; j++){
+            ar[j] = -1*ar[j];
+            ai[j] = -1*ai[j];
+        }
+    }
+
+    /** a = 1 / a, for the first `n` elements */
+    static void inv(double[] ar, double[] ai, int n){
+        int j = VECTOR != null ? VECTOR.inv(ar, ai, n) : 0;
+        for(; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double denom = xr*xr + xi*xi;
+            ar[j] = xr/denom;
+            ai[j] = -1 * (xi/denom);
+        }
+    }
+
+    /** a = |a|, for the first `n` elements */
+    static void abs(double[] ar, double[] ai, int n){
+        int j = VECTOR != null ? VECTOR.abs(ar, ai, n) : 0;
+        for(; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            ar[j] = Math.sqrt(xr*xr + xi*xi);
+            ai[j] = 0.0;
+        }
+    }
+
+
+    // Transcendental: ---------------------------------------------------------
+
+    /** a = exp(a), for the first `n` elements */
+    static void exp(double[] ar, double[] ai, int n){
+        for(int j = 0; j < n; j++){
+            double e = Math.exp(ar[j]);
+            double t = ai[j];
+            ar[j] = e * Math.cos(t);
+            ai[j] = e * Math.sin(t);
+        }
+    }
+
+    /** a = ln(a), for the first `n` elements */
+    static void ln(double[] ar, double[] ai, int n){
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            ar[j] = Math.log(Math.sqrt(xr*xr + xi*xi));
+            ai[j] = Math.atan2(xi, xr);
+        }
+    }
+
+    /** a = sin(a), for the first `n` elements */
+    static void sin(double[] ar, double[] ai, int n){
+        // See `ScalarMath.sin()`
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double izr = 0.0*xr - 1.0*xi;
+            double izi = 1.0*xr + 0.0*xi;
+            double nr = -1*izr, ni = -1*izi;
+            double ep = Math.exp(izr), en = Math.exp(nr);
+            double sr = ep*Math.cos(izi) - en*Math.cos(ni);
+            double si = ep*Math.sin(izi) - en*Math.sin(ni);
+            ar[j] = sr*0.0 - si*-0.5;
+            ai[j] = si*0.0 + sr*-0.5;
+        }
+    }
+
+    /** a = cos(a), for the first `n` elements */
+    static void cos(double[] ar, double[] ai, int n){
+        // See `ScalarMath.cos()`
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double izr = 0.0*xr - 1.0*xi;
+            double izi = 1.0*xr + 0.0*xi;
+            double nr = -1*izr, ni = -1*izi;
+            double ep = Math.exp(izr), en = Math.exp(nr);
+            double sr = ep*Math.cos(izi) + en*Math.cos(ni);
+            double si = ep*Math.sin(izi) + en*Math.sin(ni);
+            ar[j] = sr*0.5 - si*-0.0;
+            ai[j] = si*0.5 + sr*-0.0;
+        }
+    }
+
+    /** a = a ^ b (principal value), for the first `n` elements */
+    static void pow(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        // exp(ln(a) * b)
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double lr = Math.log(Math.sqrt(xr*xr + xi*xi));
+            double li = Math.atan2(xi, xr);
+            double mr = lr*br[j] - li*bi[j];
+            double mi = li*br[j] + lr*bi[j];
+            double e = Math.exp(mr);
+            ar[j] = e * Math.cos(mi);
+            ai[j] = e * Math.sin(mi);
+        }
+    }
+
+    /** a = a ^ Re(b) (principal value), for the first `n` elements */
+    static void powReal(double[] ar, double[] ai, double[] br, int n){
+        // See `ScalarMath.powReal()`
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double p = br[j];
+            double m = ScalarMath.modulusPow(xr, xi, p);
+            double t = Math.atan2(xi, xr) * p;
+            ar[j] = m * Math.cos(t);
+            ai[j] = m * Math.sin(t);
+        }
+    }
+
+    /** a = sqrt(a) (principal value), for the first `n` elements */
+    static void sqrt(double[] ar, double[] ai, int n){
+        // See `ScalarMath.sqrt()`
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double t = Math.sqrt(0.5*ScalarMath.modulus(xr, xi) + 0.5*Math.abs(xr));
+            if(t == 0){
+                ar[j] = 0.0;
+            } else if(xr >= 0){
+                ar[j] = t;
+                ai[j] = xi / (2*t);
+            } else {
+                ar[j] = Math.abs(xi) / (2*t);
+                ai[j] = Math.copySign(t, xi);
+            }
+        }
+    }
+
+    /** a = arg(a), for the first `n` elements */
+    static void arg(double[] ar, double[] ai, int n){
+        for(int j = 0; j < n; j++){
+            ar[j] = Math.atan2(ai[j], ar[j]);
+            ai[j] = 0.0;
+        }
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * @return A `VectorKernels`, if it can and should be used, otherwise
+     *         null. It is loaded by name so this class compiles without it.
+     */
+    private static VectorArithmetic loadVectors(){
+        if("false".equalsIgnoreCase(System.getProperty("cs.ratnani.vector")))
+            return null;
+        // Without the module, `VectorKernels` can not even be loaded
+        if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return null;
+        try{
+            VectorArithmetic ret = Class.forName("cs.ratnani.math.VectorKernels")
+                    .asSubclass(VectorArithmetic.class)
+                    .getDeclaredConstructor()
+                    .newInstance();
+            return ret.isUsable() ? ret : null;
+        } catch(ReflectiveOperationException | LinkageError e){
+            // Ex. it was not compiled
+            return null;
+        }
+    }
+
+}
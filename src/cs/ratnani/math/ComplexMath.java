@@ -1,8 +1,8 @@
 package cs.ratnani.math;
 
+import cs.ratnani.util.RenderEvents;
+
 import java.awt.image.BufferedImage;
-import java.util.EmptyStackException;
-import java.util.Stack;
 
 /**
  * This class contains static functions on complex numbers, such as add,
@@ -10,7 +10,7 @@ import java.util.Stack;
  *
  * @see Complex
  * @author Ammar Ratnani
- * @version 2017.05.16
+ * @version 2017.05.17
  */
 public class ComplexMath {
 
@@ -112,9 +112,10 @@ public class ComplexMath {
         // exp(a) * exp(bi)
         // exp(a) * (cos(b) + i*sin(b))
         // exp(a)*cos(b) + (exp(a)*sin(b))i
+        double e = Math.exp(z.getRe());
         return new Complex(
-                Math.exp(z.getRe()) * Math.cos(z.getIm()),
-                Math.exp(z.getRe()) * Math.sin(z.getIm())
+                e * Math.cos(z.getIm()),
+                e * Math.sin(z.getIm())
         );
     }
 
@@ -139,8 +140,9 @@ public class ComplexMath {
         //           exp(iz) - exp(-iz)
         // sin(z) = --------------------
         //                   2i
+        Complex iz = mul(I,z);
         return div(
-                sub( exp(mul(I,z)), exp(negate(mul(I,z))) ),
+                sub( exp(iz), exp(negate(iz)) ),
                 mul(new Complex(2), I)
         );
     }
@@ -153,8 +155,9 @@ public class ComplexMath {
         //           exp(iz) + exp(-iz)
         // cos(z) = --------------------
         //                   2
+        Complex iz = mul(I,z);
         return div(
-                add( exp(mul(I,z)), exp(negate(mul(I,z))) ),
+                add( exp(iz), exp(negate(iz)) ),
                 new Complex(2)
         );
     }
@@ -178,123 +181,70 @@ public class ComplexMath {
 
     /**
      * This method will take a string in postfix notation and compute it for
-     * the complex number supplied.
+     * the complex number supplied. If the same function has to be computed at
+     * many points, compile it once with `CompiledFunction.compile` instead.
      *
      * @throws IllegalArgumentException When the string is not valid postfix
      * @param s The operations in postfix. Use `z` to represent the complex
      *          number supplied
      * @param z The complex number to use in `s`
      * @return The value of `s` at `z`
+     * @see CompiledFunction
      */
     public static Complex parsePostfix(String s, Complex z){
-        // Do it as described on Wikipeida:
-        //  https://en.wikipedia.org/wiki/Reverse_Polish_notation#Postfix_algorithm
+        return CompiledFunction.compile(s, false).evaluateOnce(z);
+    }
 
-        Stack<Complex> vals = new Stack<>();
+    /**
+     * This method will take a postfix function and a specified origin and
+     * find out which of its tokens take the most time to plot. It is
+     * compiled without optimizing, so every token is counted as written. Only
+     * every `step`-th pixel in each direction is computed (and colored), so
+     * it takes about 1/step^2 as long as the plot would. That is done twice,
+     * and only the second time is counted, since the first is mostly the JIT
+     * compiling things.
+     *
+     * @throws IllegalArgumentException When the string is not valid postfix,
+     *         or `step` is not positive
+     * @param s The function in postfix notation
+     * @param reUp The upper bound on the real axis
+     * @param reDo The lower bound on the real axis
+     * @param imUp The upper bound on the imaginary axis
+     * @param imDo The lower bound on the imaginary axis
+     * @param w The width of the plot
+     * @param h The height of the plot
+     * @param step How far apart the pixels computed are
+     * @return How long each token and the coloring took
+     * @see Profile#toString()
+     */
+    public static Profile profile(String s, double reUp, double reDo, double imUp, double imDo,
+                                  int w, int h, int step){
+        if(step <= 0)
+            throw new IllegalArgumentException("Step must be positive");
+        Profile ret = new Profile(s);
+        Evaluator e = CompiledFunction.compile(s, false).newEvaluator(ret);
 
-        String[] tokens = s.split(" ");
-        for(String t : tokens){
-            // If the next token is a complex number
-            try{
-                vals.push(Complex.parseComplex(t));
-            } catch(NumberFormatException e){
-                // It is an operator or "z"
-                try{
-                    // Try every token
-                    // Remember: pops get the arguments in reverse order
-                    // We have to use braces for scoping
-                    switch(t){
-                        case "z": {
-                            vals.push(z);
-                            break;
-                        }
-                        case "+": {
-                            Complex arg2 = vals.pop();
-                            Complex arg1 = vals.pop();
-                            vals.push(add(arg1, arg2));
-                            break;
-                        }
-                        case "-": {
-                            Complex arg2 = vals.pop();
-                            Complex arg1 = vals.pop();
-                            vals.push(sub(arg1, arg2));
-                            break;
-                        }
-                        case "*": {
-                            Complex arg2 = vals.pop();
-                            Complex arg1 = vals.pop();
-                            vals.push(mul(arg1,arg2));
-                            break;
-                        }
-                        case "/": {
-                            Complex arg2 = vals.pop();
-                            Complex arg1 = vals.pop();
-                            vals.push(div(arg1, arg2));
-                            break;
-                        }
-                        case "^": {
-                            Complex arg2 = vals.pop();
-                            Complex arg1 = vals.pop();
-                            vals.push(pow(arg1, arg2));
-                            break;
-                        }
-                        case "conj": {
-                            vals.push(conj(vals.pop()));
-                            break;
-                        }
-                        case "inv": {
-                            vals.push(inv(vals.pop()));
-                            break;
-                        }
-                        case "exp": {
-                            vals.push(exp(vals.pop()));
-                            break;
-                        }
-                        case "ln": {
-                            vals.push(ln(vals.pop()));
-                            break;
-                        }
-                        case "sin": {
-                            vals.push(sin(vals.pop()));
-                            break;
-                        }
-                        case "cos": {
-                            vals.push(cos(vals.pop()));
-                            break;
-                        }
-                        case "abs": {
-                            vals.push(new Complex(vals.pop().getAbs()));
-                            break;
-                        }
-                        case "arg": {
-                            vals.push(new Complex(vals.pop().getArg()));
-                            break;
-                        }
-                        case "re": {
-                            vals.push(new Complex(vals.pop().getRe()));
-                            break;
-                        }
-                        case "im": {
-                            vals.push(new Complex(vals.pop().getIm()));
-                            break;
-                        }
-                        default: {
-                            throw new IllegalArgumentException("Token '" + t + "' not defined");
-                        }
-                    }
-                } catch(EmptyStackException f){
-                    // The string is not formatted correctly
-                    throw new IllegalArgumentException("Not valid postfix string");
+        int n = (w + step - 1) / step;
+        double[] re = new double[n];
+        double[] im = new double[n];
+        int[] rgb = new int[n];
+        for(int pass = 0; pass < 2; pass++){
+            ret.reset();
+            for(int r = 0; r < h; r += step){
+                for(int k = 0; k < n; k++){
+                    re[k] = numAtC(k * step, w, reUp, reDo);
+                    im[k] = numAtR(r, h, imUp, imDo);
                 }
-            }
-        }
+                e.evaluateBatch(re, im, n);
 
-        if(vals.size() == 1){
-            return vals.pop();
-        } else {
-            // The string is not formatted correctly
-            throw new IllegalArgumentException("Not valid postfix string");
+                // The same coloring as `plot()`
+                long before = System.nanoTime();
+                for(int k = 0; k < n; k++)
+                    rgb[k] = Complex.getRGB(re[k], im[k]);
+                ret.addColor(n, System.nanoTime() - before);
+            }
         }
+        return ret;
     }
 
     /**
@@ -311,21 +261,72 @@ public class ComplexMath {
      * @return The plot of the function
      */
     public static BufferedImage plot(String s, double reUp, double reDo, double imUp, double imDo, int w, int h){
+        return plot(CompiledFunction.compile(s, false), reUp, reDo, imUp, imDo, w, h);
+    }
+
+    /**
+     * This method will take a compiled function and a specified origin and
+     * spit out a plot of the function as a w-by-h image
+     *
+     * @param f The function to plot
+     * @param reUp The upper bound on the real axis
+     * @param reDo The lower bound on the real axis
+     * @param imUp The upper bound on the imaginary axis
+     * @param imDo The lower bound on the imaginary axis
+     * @param w The width of the image produced
+     * @param h The height of the image produced
+     * @return The plot of the function
+     */
+    public static BufferedImage plot(CompiledFunction f, double reUp, double reDo, double imUp, double imDo, int w, int h){
+        return plot(f, new Complex(0, 0), reUp, reDo, imUp, imDo, w, h);
+    }
+
+    /**
+     * This method will take a compiled function, a value for its parameter
+     * `t`, and a specified origin and spit out a plot of the function as a
+     * w-by-h image. The same compiled function can be plotted for many values
+     * of `t`, like the frames of an animation. Each plot is reported to
+     * `RenderEvents`.
+     *
+     * @param f The function to plot
+     * @param t The value to use for `t`
+     * @param reUp The upper bound on the real axis
+     * @param reDo The lower bound on the real axis
+     * @param imUp The upper bound on the imaginary axis
+     * @param imDo The lower bound on the imaginary axis
+     * @param w The width of the image produced
+     * @param h The height of the image produced
+     * @return The plot of the function
+     */
+    public static BufferedImage plot(CompiledFunction f, Complex t, double reUp, double reDo, double imUp, double imDo, int w, int h){
+        RenderEvents.Render event = RenderEvents.Render.start("plot", f.getSource(), (long) w * h, 1);
         BufferedImage ret = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 
-        // For each pixel
+        // Reuse the same evaluator and buffers for every row
+        Evaluator e = f.newEvaluator();
+        e.setT(t.getRe(), t.getIm());
+        double[] re = new double[w];
+        double[] im = new double[w];
+        int[] rgb = new int[w];
+
+        // For each row
         for(int r = 0; r < h; r++){
+            // Calculate the complex number associated with each pixel
             for(int c = 0; c < w; c++){
-                // Calculate the complex number associated with that pixel
-                Complex in = new Complex(
-                        numAtC(c,w,reUp,reDo),
-                        numAtR(r,h,imUp,imDo)
-                );
-                // Set the color to the function's value at that point
-                ret.setRGB(c, r, parsePostfix(s, in).getColor().getRGB());
+                re[c] = numAtC(c,w,reUp,reDo);
+                im[c] = numAtR(r,h,imUp,imDo);
             }
+            // Compute the whole row at once
+            e.evaluateBatch(re, im, w);
+            // Set the color to the function's value at each point
+            for(int c = 0; c < w; c++)
+                rgb[c] = Complex.getRGB(re[c], im[c]) & 0x00FFFFFF;
+                    // `TYPE_INT_RGB` pixels have no alpha
+            // Copy the whole row into the image at once
+            ret.getRaster().setDataElements(0, r, w, 1, rgb);
         }
 
+        event.finish();
         return ret;
     }
 
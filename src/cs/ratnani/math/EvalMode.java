@@ -0,0 +1,63 @@
+package cs.ratnani.math;
+
+/**
+ * This enum lists the ways a compiled function can be computed. All of them
+ * give exactly the same results; they only differ in speed and start-up cost.
+ *
+ * The default is read once from the system property `cs.ratnani.evalMode`
+ * (for example `-Dcs.ratnani.evalMode=GENERATED`), and is `INTERPRETED` if
+ * that property is not set or not valid.
+ *
+ * @see CompiledFunction#newEvaluator(EvalMode)
+ * @author Ammar Ratnani
+ * @version 2017.05.16
+ */
+public enum EvalMode {
+
+    /** Run the program on a register machine. No start-up cost. */
+    INTERPRETED,
+
+    /**
+     * Turn the program into a class with straight-line methods, which the
+     * JVM can then optimize like any other code. The class is only made
+     * once per function, but is slow until the JVM has compiled it, so this
+     * is best for large plots. If the class can not be generated (ex. the
+     * function is too long for one method), this falls back to
+     * `INTERPRETED`.
+     */
+    GENERATED,
+
+    /**
+     * Run the program on a register machine, but do each operation for a
+     * whole batch of points (ex. a row of pixels) before moving on to the
+     * next one. This only helps when computing many points at once with
+     * `Evaluator.evaluateBatch()`.
+     */
+    BATCH;
+
+
+    // Constants: --------------------------------------------------------------
+
+    private static final EvalMode DEFAULT = readDefault();
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /** @return The mode to use when none is specified */
+    public static EvalMode getDefault(){ return DEFAULT; }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    private static EvalMode readDefault(){
+        String p = System.getProperty("cs.ratnani.evalMode");
+        if(p == null)
+            return INTERPRETED;
+        try{
+            return valueOf(p.trim().toUpperCase());
+        } catch(IllegalArgumentException e){
+            return INTERPRETED;
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package cs.ratnani.math;
+
+/**
+ * This interface represents something that can compute a compiled function at
+ * a point. Everything is passed as primitive doubles so that computing a value
+ * does not need to allocate anything.
+ *
+ * Evaluators keep scratch space between calls, so each thread should get its
+ * own from `CompiledFunction.newEvaluator()`.
+ *
+ * @see CompiledFunction
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public interface Evaluator {
+
+    /**
+     * Computes the function at re + im*i.
+     *
+     * @param re The real part of the input
+     * @param im The imaginary part of the input
+     * @param out Where to put the result: the real part goes in `out[0]` and
+     *            the imaginary part in `out[1]`
+     */
+    void evaluate(double re, double im, double[] out);
+
+    /**
+     * Sets the parameter `t` for every value computed after this. It starts
+     * at 0.
+     *
+     * @param re The real part of `t`
+     * @param im The imaginary part of `t`
+     */
+    void setT(double re, double im);
+
+    /**
+     * Computes the function at `n` points at once. The inputs are read from
+     * the arrays and the results are written back over them, so the value at
+     * `re[k] + im[k]*i` ends up in `re[k]` and `im[k]`.
+     *
+     * By default this just calls `evaluate` for each point, but evaluators
+     * that can do better (ex. `EvalMode.BATCH`) override it.
+     *
+     * @param re The real parts of the inputs, then of the outputs
+     * @param im The imaginary parts of the inputs, then of the outputs
+     * @param n How many points to compute
+     */
+    default void evaluateBatch(double[] re, double[] im, int n){
+        double[] out = new double[2];
+        for(int k = 0; k < n; k++){
+            evaluate(re[k], im[k], out);
+            re[k] = out[0];
+            im[k] = out[1];
+        }
+    }
+
+}
@@ -0,0 +1,700 @@
+package cs.ratnani.math;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class turns a compiled function into a brand new class at runtime. The
+ * class implements `Evaluator` with straight-line methods, where each postfix
+ * operation becomes a couple of local variables. There is no loop and no
+ * switch, so the JVM can inline and optimize it like hand-written code.
+ * Values the optimizer shared are just locals that are used more than once.
+ *
+ * We do this by writing the class file's bytes ourselves and defining them as
+ * a hidden class with `MethodHandles.Lookup.defineHiddenClass()`. That needs
+ * nothing but the JVM (no compiler), takes well under a millisecond, and the
+ * class can be unloaded as soon as nothing uses it, without a class loader of
+ * its own. The class goes in this package, so it can call `ScalarMath`.
+ *
+ * The class has:
+ * <ul>
+ *     <li>`evaluate(re, im, out)`, which computes the function once, and</li>
+ *     <li>`evaluateBatch(re, im, n)`, which loops over the points with the
+ *         same code inlined into the loop, so it allocates nothing.</li>
+ * </ul>
+ *
+ * The code written does exactly the same arithmetic as `ScalarMath`, so the
+ * results are the same down to the bit.
+ *
+ * @see EvalMode#GENERATED
+ * @see ScalarMath
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class EvaluatorGenerator {
+
+    // Constants: --------------------------------------------------------------
+
+    // The name the generated classes are given. Hidden classes get a unique
+    //  suffix added by the JVM, so they can all share it.
+    private static final String NAME = "cs/ratnani/math/GeneratedEvaluator";
+
+    // Java 8 class files, which need stack map frames for `evaluateBatch`'s
+    //  loop and nothing else
+    private static final int VERSION = 52;
+
+    // Access flags
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // The opcodes used
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int DALOAD = 0x31;
+    private static final int ISTORE = 0x36;
+    private static final int DSTORE = 0x39;
+    private static final int DASTORE = 0x52;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int IINC = 0x84;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+
+    private EvaluatorGenerator(){}
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Generates and loads a class that computes `f`.
+     *
+     * @param f The function to generate a class for
+     * @return The class, which has a public no-argument constructor, or null
+     *         if it could not be generated
+     */
+    static Class<? extends Evaluator> generate(CompiledFunction f){
+        try{
+            byte[] bytes = writeClass(f);
+            return MethodHandles.lookup()
+                    .defineHiddenClass(bytes, true)
+                    .lookupClass()
+                    .asSubclass(Evaluator.class);
+        } catch(Exception | LinkageError e){
+            // Anything going wrong (ex. a function too long for one method)
+            //  just means we use the interpreter
+            return null;
+        }
+    }
+
+    /**
+     * Writes the class file for a class that computes `f`.
+     *
+     * @throws IOException Never, as it is written to memory
+     * @param f The function to write
+     * @return The bytes of the class file
+     */
+    static byte[] writeClass(CompiledFunction f) throws IOException {
+        Pool cp = new Pool();
+        int thisClass = cp.classRef(NAME);
+        int tr = cp.fieldRef(NAME, "tr", "D");
+        int ti = cp.fieldRef(NAME, "ti", "D");
+
+        List<byte[]> methods = new ArrayList<>();
+
+        // public GeneratedEvaluator(){ super(); }
+        Code init = new Code(cp, 1);
+        init.aload(0);
+        init.op(INVOKESPECIAL, -1).u2(cp.methodRef("java/lang/Object", "<init>", "()V"));
+        init.op(RETURN, 0);
+        methods.add(method(cp, "<init>", "()V", init, null));
+
+        // public void setT(double re, double im){ tr = re; ti = im; }
+        Code setT = new Code(cp, 5);
+        setT.aload(0).dload(1).op(PUTFIELD, -3).u2(tr);
+        setT.aload(0).dload(3).op(PUTFIELD, -3).u2(ti);
+        setT.op(RETURN, 0);
+        methods.add(method(cp, "setT", "(DD)V", setT, null));
+
+        // public void evaluate(double re, double im, double[] out)
+        Code eval = new Code(cp, 6);
+        int[] res = writeBody(f, eval, 1, 3, tr, ti);
+        eval.aload(5).iconst(0).dload(res[0]).op(DASTORE, -4);
+        eval.aload(5).iconst(1).dload(res[1]).op(DASTORE, -4);
+        eval.op(RETURN, 0);
+        methods.add(method(cp, "evaluate", "(DD[D)V", eval, null));
+
+        // public void evaluateBatch(double[] re, double[] im, int n){
+        //     for(int k = 0; k < n; k++){ ... }
+        // }
+        Code batch = new Code(cp, 5);
+        batch.iconst(0).op(ISTORE, -1).u1(4);
+        int loop = batch.size();
+        batch.iload(4).iload(3);
+        int exit = batch.size();
+        batch.op(IF_ICMPGE, -2).u2(0);
+        int zr = batch.newDouble();
+        int zi = batch.newDouble();
+        batch.aload(1).iload(4).op(DALOAD, 0).dstore(zr);
+        batch.aload(2).iload(4).op(DALOAD, 0).dstore(zi);
+        res = writeBody(f, batch, zr, zi, tr, ti);
+        batch.aload(1).iload(4).dload(res[0]).op(DASTORE, -4);
+        batch.aload(2).iload(4).dload(res[1]).op(DASTORE, -4);
+        batch.op(IINC, 0).u1(4).u1(1);
+        batch.op(GOTO, 0).u2(Code.offset(loop - batch.size() + 1));
+        int end = batch.size();
+        batch.patch(exit + 1, Code.offset(end - exit));
+        batch.op(RETURN, 0);
+
+        // The loop's start and end both see only the arguments and `k`
+        int arr = cp.classRef("[D");
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        DataOutputStream fo = new DataOutputStream(frames);
+        fo.writeShort(2);
+        fo.writeByte(255); // full_frame
+        fo.writeShort(loop);
+        fo.writeShort(5);
+        fo.writeByte(7); fo.writeShort(thisClass);
+        fo.writeByte(7); fo.writeShort(arr);
+        fo.writeByte(7); fo.writeShort(arr);
+        fo.writeByte(1);
+        fo.writeByte(1);
+        fo.writeShort(0);
+        fo.writeByte(251); // same_frame_extended
+        fo.writeShort(end - loop - 1);
+        methods.add(method(cp, "evaluateBatch", "([D[DI)V", batch, frames.toByteArray()));
+
+        // Everything is in the pool by now, so it can be written first
+        int object = cp.classRef("java/lang/Object");
+        int evaluator = cp.classRef("cs/ratnani/math/Evaluator");
+        int fieldName0 = cp.utf8("tr");
+        int fieldName1 = cp.utf8("ti");
+        int fieldType = cp.utf8("D");
+        String source = f.getSource();
+        int sourceAttr = source == null ? 0 : cp.utf8("SourceFile");
+        int sourceName = source == null ? 0 : cp.utf8(source.replace('\n', ' '));
+
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(ret);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(VERSION);
+        cp.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(object);
+        out.writeShort(1);
+        out.writeShort(evaluator);
+
+        out.writeShort(2);
+        for(int name : new int[]{fieldName0, fieldName1}){
+            out.writeShort(ACC_PRIVATE);
+            out.writeShort(name);
+            out.writeShort(fieldType);
+            out.writeShort(0);
+        }
+
+        out.writeShort(methods.size());
+        for(byte[] m : methods)
+            out.write(m);
+
+        // Name the "source file" after the function, so it shows up in
+        //  stack traces
+        if(source == null){
+            out.writeShort(0);
+        } else {
+            out.writeShort(1);
+            out.writeShort(sourceAttr);
+            out.writeInt(2);
+            out.writeShort(sourceName);
+        }
+        return ret.toByteArray();
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Writes the code that computes `f` at the point in locals `zr` and `zi`.
+     * Every instruction `k` gets two new locals for the real and imaginary
+     * parts of its result, and some more for the parts in between.
+     *
+     * @param f The function to write
+     * @param c Where to write it
+     * @param zr The local holding the real part of `z`
+     * @param zi The local holding the imaginary part of `z`
+     * @param tr The field holding the real part of `t`
+     * @param ti The field holding the imaginary part of `t`
+     * @return The locals holding the real and imaginary parts of the answer
+     */
+    private static int[] writeBody(CompiledFunction f, Code c, int zr, int zi, int tr, int ti){
+        // The locals holding the real and imaginary part of each
+        //  instruction's result
+        int[] re = new int[f.getLength()];
+        int[] im = new int[f.getLength()];
+
+        // Simulate the stack to find which instruction made each argument,
+        //  and which made the value in each temporary slot
+        int[] stack = new int[f.getMaxDepth()];
+        int[] slots = new int[f.getTemps()];
+        int top = 0;
+
+        for(int k = 0; k < f.getLength(); k++){
+            int op = f.getOp(k);
+            // These only move values around, so no code is needed
+            if(op == CompiledFunction.OP_STORE){
+                slots[f.getArg(k)] = stack[top-1];
+                continue;
+            }
+            if(op == CompiledFunction.OP_LOAD){
+                stack[top++] = slots[f.getArg(k)];
+                continue;
+            }
+            int arity = CompiledFunction.arityOf(op);
+            int ra = arity >= 1 ? re[stack[top - arity]] : -1;
+            int ia = arity >= 1 ? im[stack[top - arity]] : -1;
+            int rb = arity == 2 ? re[stack[top - 1]] : -1;
+            int ib = arity == 2 ? im[stack[top - 1]] : -1;
+            top -= arity;
+            stack[top++] = k;
+
+            // `z` is already in locals, which are never written again
+            if(op == CompiledFunction.OP_Z){
+                re[k] = zr;
+                im[k] = zi;
+                continue;
+            }
+            int rk = re[k] = c.newDouble();
+            int ik = im[k] = c.newDouble();
+
+            switch(op){
+                case CompiledFunction.OP_CONST: {
+                    Complex lit = f.getConst(k);
+                    c.dconst(lit.getRe()).dstore(rk);
+                    c.dconst(lit.getIm()).dstore(ik);
+                    break;
+                }
+                case CompiledFunction.OP_T:
+                    c.aload(0).op(GETFIELD, 1).u2(tr).dstore(rk);
+                    c.aload(0).op(GETFIELD, 1).u2(ti).dstore(ik);
+                    break;
+                case CompiledFunction.OP_ADD:
+                    c.dload(ra).dload(rb).op(DADD, -2).dstore(rk);
+                    c.dload(ia).dload(ib).op(DADD, -2).dstore(ik);
+                    break;
+                case CompiledFunction.OP_SUB:
+                    c.dload(ra).dload(rb).op(DSUB, -2).dstore(rk);
+                    c.dload(ia).dload(ib).op(DSUB, -2).dstore(ik);
+                    break;
+                case CompiledFunction.OP_MUL:
+                    writeMul(c, ra, ia, rb, ib, rk, ik);
+                    break;
+                case CompiledFunction.OP_DIV: {
+                    // a * (1 / b), as in `ScalarMath.div()`
+                    int p = c.newDouble();
+                    int q = c.newDouble();
+                    writeInv(c, rb, ib, p, q);
+                    writeMul(c, ra, ia, p, q, rk, ik);
+                    break;
+                }
+                case CompiledFunction.OP_POW: {
+                    // exp(ln(a) * b)
+                    int l = c.newDouble();
+                    int t = c.newDouble();
+                    int m = c.newDouble();
+                    int n = c.newDouble();
+                    writeNorm(c, ra, ia).call("java/lang/Math", "sqrt", 1)
+                            .call("java/lang/Math", "log", 1).dstore(l);
+                    c.dload(ia).dload(ra).call("java/lang/Math", "atan2", 2).dstore(t);
+                    c.dload(l).dload(rb).op(DMUL, -2).dload(t).dload(ib).op(DMUL, -2).op(DSUB, -2).dstore(m);
+                    c.dload(t).dload(rb).op(DMUL, -2).dload(l).dload(ib).op(DMUL, -2).op(DADD, -2).dstore(n);
+                    writeExp(c, m, n, rk, ik);
+                    break;
+                }
+                case CompiledFunction.OP_POW_REAL: {
+                    // See `ScalarMath.powReal()`
+                    int m = c.newDouble();
+                    int t = c.newDouble();
+                    c.dload(ra).dload(ia).dload(rb)
+                            .call("cs/ratnani/math/ScalarMath", "modulusPow", 3).dstore(m);
+                    c.dload(ia).dload(ra).call("java/lang/Math", "atan2", 2).dload(rb).op(DMUL, -2).dstore(t);
+                    c.dload(m).dload(t).call("java/lang/Math", "cos", 1).op(DMUL, -2).dstore(rk);
+                    c.dload(m).dload(t).call("java/lang/Math", "sin", 1).op(DMUL, -2).dstore(ik);
+                    break;
+                }
+                case CompiledFunction.OP_SQRT: {
+                    // See `ScalarMath.sqrt()`
+                    int t = c.newDouble();
+                    c.dconst(0.5).dload(ra).dload(ia)
+                            .call("cs/ratnani/math/ScalarMath", "modulus", 2).op(DMUL, -2);
+                    c.dconst(0.5).dload(ra).call("java/lang/Math", "abs", 1).op(DMUL, -2)
+                            .op(DADD, -2).call("java/lang/Math", "sqrt", 1).dstore(t);
+                    c.dload(ra).dload(ia).dload(t).call("cs/ratnani/math/ScalarMath", "sqrtRe", 3).dstore(rk);
+                    c.dload(ra).dload(ia).dload(t).call("cs/ratnani/math/ScalarMath", "sqrtIm", 3).dstore(ik);
+                    break;
+                }
+                case CompiledFunction.OP_CONJ:
+                    c.dload(ra).dstore(rk);
+                    c.dconst(-1).dload(ia).op(DMUL, -2).dstore(ik);
+                    break;
+                case CompiledFunction.OP_INV:
+                    writeInv(c, ra, ia, rk, ik);
+                    break;
+                case CompiledFunction.OP_EXP:
+                    writeExp(c, ra, ia, rk, ik);
+                    break;
+                case CompiledFunction.OP_LN:
+                    writeNorm(c, ra, ia).call("java/lang/Math", "sqrt", 1)
+                            .call("java/lang/Math", "log", 1).dstore(rk);
+                    c.dload(ia).dload(ra).call("java/lang/Math", "atan2", 2).dstore(ik);
+                    break;
+                case CompiledFunction.OP_SIN:
+                case CompiledFunction.OP_COS:
+                    writeSinCos(c, op == CompiledFunction.OP_SIN, ra, ia, rk, ik);
+                    break;
+                case CompiledFunction.OP_ABS:
+                    writeNorm(c, ra, ia).call("java/lang/Math", "sqrt", 1).dstore(rk);
+                    c.dconst(0.0).dstore(ik);
+                    break;
+                case CompiledFunction.OP_ARG:
+                    c.dload(ia).dload(ra).call("java/lang/Math", "atan2", 2).dstore(rk);
+                    c.dconst(0.0).dstore(ik);
+                    break;
+                case CompiledFunction.OP_RE:
+                    c.dload(ra).dstore(rk);
+                    c.dconst(0.0).dstore(ik);
+                    break;
+                case CompiledFunction.OP_NEG:
+                    c.dconst(-1).dload(ra).op(DMUL, -2).dstore(rk);
+                    c.dconst(-1).dload(ia).op(DMUL, -2).dstore(ik);
+                    break;
+                default: // OP_IM
+                    c.dload(ia).dstore(rk);
+                    c.dconst(0.0).dstore(ik);
+            }
+        }
+
+        // The answer is whatever is left on the stack
+        return new int[]{re[stack[0]], im[stack[0]]};
+    }
+
+    /** Pushes `r*r + i*i` */
+    private static Code writeNorm(Code c, int r, int i){
+        return c.dload(r).dload(r).op(DMUL, -2).dload(i).dload(i).op(DMUL, -2).op(DADD, -2);
+    }
+
+    /** (rk, ik) = (ra, ia) * (rb, ib), as in `ScalarMath.mul()` */
+    private static void writeMul(Code c, int ra, int ia, int rb, int ib, int rk, int ik){
+        c.dload(ra).dload(rb).op(DMUL, -2).dload(ia).dload(ib).op(DMUL, -2).op(DSUB, -2).dstore(rk);
+        c.dload(ia).dload(rb).op(DMUL, -2).dload(ra).dload(ib).op(DMUL, -2).op(DADD, -2).dstore(ik);
+    }
+
+    /** (rk, ik) = 1 / (ra, ia), as in `ScalarMath.inv()` */
+    private static void writeInv(Code c, int ra, int ia, int rk, int ik){
+        int d = c.newDouble();
+        writeNorm(c, ra, ia).dstore(d);
+        c.dload(ra).dload(d).op(DDIV, -2).dstore(rk);
+        c.dconst(-1).dload(ia).dload(d).op(DDIV, -2).op(DMUL, -2).dstore(ik);
+    }
+
+    /** (rk, ik) = exp((ra, ia)), as in `ScalarMath.exp()` */
+    private static void writeExp(Code c, int ra, int ia, int rk, int ik){
+        int e = c.newDouble();
+        c.dload(ra).call("java/lang/Math", "exp", 1).dstore(e);
+        c.dload(e).dload(ia).call("java/lang/Math", "cos", 1).op(DMUL, -2).dstore(rk);
+        c.dload(e).dload(ia).call("java/lang/Math", "sin", 1).op(DMUL, -2).dstore(ik);
+    }
+
+    /** (rk, ik) = sin or cos of (ra, ia), as in `ScalarMath.sin()` and `cos()` */
+    private static void writeSinCos(Code c, boolean sin, int ra, int ia, int rk, int ik){
+        int x = c.newDouble();
+        int y = c.newDouble();
+        int e = c.newDouble();
+        int g = c.newDouble();
+        int s = c.newDouble();
+        int t = c.newDouble();
+        // iz, as `mul(I,z)` computes it
+        c.dconst(0.0).dload(ra).op(DMUL, -2).dconst(1.0).dload(ia).op(DMUL, -2).op(DSUB, -2).dstore(x);
+        c.dconst(1.0).dload(ra).op(DMUL, -2).dconst(0.0).dload(ia).op(DMUL, -2).op(DADD, -2).dstore(y);
+        // exp(iz) and exp(-iz), keeping -iz in `u` and `v`
+        int u = c.newDouble();
+        int v = c.newDouble();
+        c.dconst(-1).dload(x).op(DMUL, -2).dstore(u);
+        c.dconst(-1).dload(y).op(DMUL, -2).dstore(v);
+        c.dload(x).call("java/lang/Math", "exp", 1).dstore(e);
+        c.dload(u).call("java/lang/Math", "exp", 1).dstore(g);
+        // exp(iz) - exp(-iz) for sin, + for cos
+        int combine = sin ? DSUB : DADD;
+        c.dload(e).dload(y).call("java/lang/Math", "cos", 1).op(DMUL, -2)
+                .dload(g).dload(v).call("java/lang/Math", "cos", 1).op(DMUL, -2).op(combine, -2).dstore(s);
+        c.dload(e).dload(y).call("java/lang/Math", "sin", 1).op(DMUL, -2)
+                .dload(g).dload(v).call("java/lang/Math", "sin", 1).op(DMUL, -2).op(combine, -2).dstore(t);
+        // Divide by 2i (multiply by 0 - .5i) for sin, or by 2 (multiply by
+        //  .5 - 0i) for cos
+        double pr = sin ? 0.0 : 0.5;
+        double pi = sin ? -0.5 : -0.0;
+        c.dload(s).dconst(pr).op(DMUL, -2).dload(t).dconst(pi).op(DMUL, -2).op(DSUB, -2).dstore(rk);
+        c.dload(t).dconst(pr).op(DMUL, -2).dload(s).dconst(pi).op(DMUL, -2).op(DADD, -2).dstore(ik);
+    }
+
+    /**
+     * Writes out one method.
+     *
+     * @param frames The `StackMapTable` attribute's contents, or null if the
+     *               method does not branch
+     */
+    private static byte[] method(Pool cp, String name, String type, Code code, byte[] frames) throws IOException {
+        int nameIndex = cp.utf8(name);
+        int typeIndex = cp.utf8(type);
+        int codeAttr = cp.utf8("Code");
+        int framesAttr = frames == null ? 0 : cp.utf8("StackMapTable");
+        byte[] bytes = code.toByteArray();
+
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(ret);
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(nameIndex);
+        out.writeShort(typeIndex);
+        out.writeShort(1);
+
+        out.writeShort(codeAttr);
+        out.writeInt(12 + bytes.length + (frames == null ? 0 : 6 + frames.length));
+        out.writeShort(code.maxStack);
+        out.writeShort(code.locals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(0);
+        if(frames == null){
+            out.writeShort(0);
+        } else {
+            out.writeShort(1);
+            out.writeShort(framesAttr);
+            out.writeInt(frames.length);
+            out.write(frames);
+        }
+        return ret.toByteArray();
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * The constant pool of the class being written. Each entry is only added
+     * once, no matter how many times it is asked for.
+     */
+    private static final class Pool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        // Index 0 is never used
+        private int count = 1;
+
+        int utf8(String s){
+            Integer i = indices.get("U" + s);
+            if(i != null)
+                return i;
+            try{
+                out.writeByte(1);
+                out.writeUTF(s);
+            } catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+            indices.put("U" + s, count);
+            return count++;
+        }
+
+        int classRef(String name){
+            return ref("C" + name, 7, utf8(name), -1);
+        }
+
+        int fieldRef(String owner, String name, String type){
+            return ref("F" + owner + "." + name + type, 9, classRef(owner), nameAndType(name, type));
+        }
+
+        int methodRef(String owner, String name, String type){
+            return ref("M" + owner + "." + name + type, 10, classRef(owner), nameAndType(name, type));
+        }
+
+        int doubleConst(double d){
+            long bits = Double.doubleToRawLongBits(d);
+            Integer i = indices.get("D" + bits);
+            if(i != null)
+                return i;
+            try{
+                out.writeByte(6);
+                out.writeLong(bits);
+            } catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+            indices.put("D" + bits, count);
+            // Doubles take two slots
+            count += 2;
+            return count - 2;
+        }
+
+        void writeTo(DataOutputStream to) throws IOException {
+            to.writeShort(count);
+            to.write(bytes.toByteArray());
+        }
+
+        private int nameAndType(String name, String type){
+            return ref("N" + name + ":" + type, 12, utf8(name), utf8(type));
+        }
+
+        /** Adds an entry of two indices (or one, if `b` is negative) */
+        private int ref(String key, int tag, int a, int b){
+            Integer i = indices.get(key);
+            if(i != null)
+                return i;
+            try{
+                out.writeByte(tag);
+                out.writeShort(a);
+                if(b >= 0)
+                    out.writeShort(b);
+            } catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+            indices.put(key, count);
+            return count++;
+        }
+
+    }
+
+    /**
+     * The body of one method as it is written. It keeps track of how deep
+     * the operand stack gets and how many locals are used, for the `Code`
+     * attribute.
+     */
+    private static final class Code {
+
+        private final Pool cp;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private int depth = 0;
+        private int maxStack = 0;
+        // The next free local, which is also how many there are
+        private int locals;
+
+        /** @param locals How many locals the arguments (and `this`) take */
+        Code(Pool cp, int locals){
+            this.cp = cp;
+            this.locals = locals;
+        }
+
+        /** @return Where the next instruction will go */
+        int size(){ return bytes.size(); }
+
+        /** @return A new local for a double */
+        int newDouble(){
+            locals += 2;
+            return locals - 2;
+        }
+
+        /**
+         * Writes an opcode.
+         *
+         * @param stack How many slots it pushes (or pops, if negative)
+         */
+        Code op(int opcode, int stack){
+            bytes.write(opcode);
+            depth += stack;
+            maxStack = Math.max(maxStack, depth);
+            return this;
+        }
+
+        Code u1(int b){
+            bytes.write(b);
+            return this;
+        }
+
+        Code u2(int s){
+            bytes.write(s >>> 8);
+            bytes.write(s);
+            return this;
+        }
+
+        Code aload(int local){ return local(ALOAD, local, 1); }
+        Code iload(int local){ return local(ILOAD, local, 1); }
+        Code dload(int local){ return local(DLOAD, local, 2); }
+        Code dstore(int local){ return local(DSTORE, local, -2); }
+
+        Code iconst(int i){
+            // iconst_0 through iconst_5
+            return op(0x03 + i, 1);
+        }
+
+        Code dconst(double d){
+            // Compare bits, so -0.0 is not written as 0.0
+            long bits = Double.doubleToRawLongBits(d);
+            if(bits == Double.doubleToRawLongBits(0.0))
+                return op(DCONST_0, 2);
+            if(bits == Double.doubleToRawLongBits(1.0))
+                return op(DCONST_1, 2);
+            return op(LDC2_W, 2).u2(cp.doubleConst(d));
+        }
+
+        /**
+         * Calls a static method that takes `args` doubles and returns one.
+         */
+        Code call(String owner, String name, int args){
+            StringBuilder type = new StringBuilder("(");
+            for(int k = 0; k < args; k++)
+                type.append('D');
+            return op(INVOKESTATIC, 2 - 2*args).u2(cp.methodRef(owner, name, type.append(")D").toString()));
+        }
+
+        /**
+         * @throws IllegalStateException If the method is too long to jump
+         *         that far
+         * @return `jump`, if it fits in a branch instruction
+         */
+        static int offset(int jump){
+            if(jump != (short) jump)
+                throw new IllegalStateException("Function too long to generate");
+            return jump;
+        }
+
+        /** Fills in a two-byte branch offset after the fact */
+        void patch(int at, int value){
+            byte[] b = bytes.toByteArray();
+            b[at] = (byte) (value >>> 8);
+            b[at + 1] = (byte) value;
+            bytes.reset();
+            bytes.write(b, 0, b.length);
+        }
+
+        byte[] toByteArray(){
+            return bytes.toByteArray();
+        }
+
+        private Code local(int opcode, int local, int stack){
+            if(local < 256)
+                return op(opcode, stack).u1(local);
+            return op(WIDE, 0).op(opcode, stack).u2(local);
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package cs.ratnani.math;
+
+/**
+ * This class has the transcendental functions from `ComplexKernels`, but
+ * computed with `FastMath` instead of `Math`. Since the results are only
+ * approximate anyway, they also use cheaper formulas: `sin` and `cos` work
+ * from sinh and cosh of the imaginary part (one `exp` instead of two), and `ln`
+ * takes the log of |a|^2 instead of |a|, skipping the square root.
+ *
+ * The other operations have nothing to approximate, so `BatchInterpreter` uses
+ * `ComplexKernels` for them in either precision.
+ *
+ * @see Precision#FAST
+ * @see ComplexKernels
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class FastKernels {
+
+    private FastKernels(){}
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /** a = exp(a), for the first `n` elements */
+    static void exp(double[] ar, double[] ai, int n){
+        for(int j = 0; j < n; j++){
+            double e = FastMath.exp(ar[j]);
+            double t = ai[j];
+            ar[j] = e * FastMath.cos(t);
+            ai[j] = e * FastMath.sin(t);
+        }
+    }
+
+    /** a = ln(a), for the first `n` elements */
+    static void ln(double[] ar, double[] ai, int n){
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            ar[j] = 0.5 * FastMath.log(xr*xr + xi*xi);
+            ai[j] = FastMath.atan2(xi, xr);
+        }
+    }
+
+    /** a = sin(a), for the first `n` elements */
+    static void sin(double[] ar, double[] ai, int n){
+        // sin(x + iy) = sin(x)cosh(y) + i cos(x)sinh(y)
+        for(int j = 0; j < n; j++){
+            double x = ar[j];
+            double ep = FastMath.exp(ai[j]);
+            double en = 1 / ep;
+            ar[j] = FastMath.sin(x) * (0.5*(ep + en));
+            ai[j] = FastMath.cos(x) * (0.5*(ep - en));
+        }
+    }
+
+    /** a = cos(a), for the first `n` elements */
+    static void cos(double[] ar, double[] ai, int n){
+        // cos(x + iy) = cos(x)cosh(y) - i sin(x)sinh(y)
+        for(int j = 0; j < n; j++){
+            double x = ar[j];
+            double ep = FastMath.exp(ai[j]);
+            double en = 1 / ep;
+            ar[j] = FastMath.cos(x) * (0.5*(ep + en));
+            ai[j] = -FastMath.sin(x) * (0.5*(ep - en));
+        }
+    }
+
+    /** a = a ^ b (principal value), for the first `n` elements */
+    static void pow(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        // exp(ln(a) * b)
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double lr = 0.5 * FastMath.log(xr*xr + xi*xi);
+            double li = FastMath.atan2(xi, xr);
+            double mr = lr*br[j] - li*bi[j];
+            double mi = li*br[j] + lr*bi[j];
+            double e = FastMath.exp(mr);
+            ar[j] = e * FastMath.cos(mi);
+            ai[j] = e * FastMath.sin(mi);
+        }
+    }
+
+    /** a = a ^ Re(b) (principal value), for the first `n` elements */
+    static void powReal(double[] ar, double[] ai, double[] br, int n){
+        // |a|^p = exp(p/2 * ln(|a|^2)), unless |a|^2 overflows or
+        //  underflows (see `ScalarMath.modulus()`)
+        for(int j = 0; j < n; j++){
+            double xr = ar[j], xi = ai[j];
+            double p = br[j];
+            double norm = xr*xr + xi*xi;
+            double m = norm >= Double.MIN_NORMAL && norm < Double.POSITIVE_INFINITY
+                    ? FastMath.exp(0.5*p * FastMath.log(norm))
+                    : Math.pow(Math.hypot(xr, xi), p);
+            double t = FastMath.atan2(xi, xr) * p;
+            ar[j] = m * FastMath.cos(t);
+            ai[j] = m * FastMath.sin(t);
+        }
+    }
+
+    /** a = arg(a), for the first `n` elements */
+    static void arg(double[] ar, double[] ai, int n){
+        for(int j = 0; j < n; j++){
+            ar[j] = FastMath.atan2(ai[j], ar[j]);
+            ai[j] = 0.0;
+        }
+    }
+
+}
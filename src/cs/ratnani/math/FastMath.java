@@ -0,0 +1,174 @@
+package cs.ratnani.math;
+
+/**
+ * This class has quick approximations of the `Math` functions that plotting
+ * spends most of its time in. Each one reduces its argument to a small range
+ * and then evaluates a short polynomial there. Arguments that are not finite,
+ * or are so large or small that the reduction would lose accuracy, are handed
+ * to `Math` instead, so NaN and Infinity come out the same as usual. So does
+ * the sign of zero (ex. sin(-0) is -0).
+ *
+ * The largest errors measured against `StrictMath` over 10^7 random
+ * arguments (and the bound for the polynomial alone) are:
+ * <table summary="Maximum errors">
+ *     <tr><th>Function</th><th>Range</th><th>Max error</th></tr>
+ *     <tr><td>exp</td><td>everywhere</td><td>relative 3e-10</td></tr>
+ *     <tr><td>sin, cos</td><td>|x| &lt;= 1e5, else exact</td><td>absolute 1e-11</td></tr>
+ *     <tr><td>log</td><td>x &gt; 0</td><td>absolute 1e-12</td></tr>
+ *     <tr><td>atan2</td><td>everywhere</td><td>absolute 1e-10</td></tr>
+ * </table>
+ * `AccuracyCheck`, under `test/`, checks these bounds and the special values
+ * above every time `mvn verify` is run.
+ *
+ * @see Precision#FAST
+ * @see FastKernels
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public final class FastMath {
+
+    // Constants: --------------------------------------------------------------
+
+    // ln(2), split so `k*LN2_HI` is exact for any exponent `k`
+    private static final double LN2_HI = 6.93147180369123816490e-01;
+    private static final double LN2_LO = 1.90821492927058770002e-10;
+    private static final double INV_LN2 = 1.44269504088896338700e+00;
+
+    // pi/2, split so `k*PIO2_HI` is exact for `k` up to 2^20
+    private static final double PIO2_HI = 1.57079632673412561417e+00;
+    private static final double PIO2_LO = 6.07710050650619224932e-11;
+    private static final double TWO_OVER_PI = 6.36619772367581382433e-01;
+
+    // Past this, reducing by pi/2 as above is not accurate enough
+    private static final double TRIG_MAX = 1e5;
+
+    private static final double SQRT2 = 1.41421356237309504880;
+    private static final double TAN_PI_8 = 0.41421356237309504880;
+
+
+    private FastMath(){}
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /** @return e^x, to within a relative error of 3e-10 */
+    public static double exp(double x){
+        // Also catches NaN
+        if(!(x > -708 && x < 709))
+            return Math.exp(x);
+
+        // x = k*ln(2) + r, where |r| <= ln(2)/2
+        double k = Math.rint(x * INV_LN2);
+        double r = (x - k*LN2_HI) - k*LN2_LO;
+
+        // Taylor series to r^8, off by at most e^r * r^9/9! < 3e-10
+        double p = 1 + r*(1 + r*(1.0/2 + r*(1.0/6 + r*(1.0/24 + r*(1.0/120
+                + r*(1.0/720 + r*(1.0/5040 + r*(1.0/40320))))))));
+
+        // Multiply by 2^k by building the double directly
+        return p * Double.longBitsToDouble(((long) k + 1023) << 52);
+    }
+
+    /** @return sin(x), to within 1e-11 */
+    public static double sin(double x){
+        // Reducing -0 would give +0
+        if(!(Math.abs(x) <= TRIG_MAX) || x == 0)
+            return Math.sin(x);
+        // x = k*pi/2 + r, where |r| <= pi/4
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = (x - k*PIO2_HI) - k*PIO2_LO;
+        // Which quadrant decides whether it is +-sin(r) or +-cos(r). This is
+        //  picked without branching, since the quadrant is hard to predict.
+        int q = (int) k;
+        double s = sinPoly(r);
+        double c = cosPoly(r);
+        return ((q & 1) == 0 ? s : c) * (1 - (q & 2));
+    }
+
+    /** @return cos(x), to within 1e-11 */
+    public static double cos(double x){
+        if(!(Math.abs(x) <= TRIG_MAX))
+            return Math.cos(x);
+        // cos(x) = sin(x + pi/2), so this is `sin()` one quadrant over
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = (x - k*PIO2_HI) - k*PIO2_LO;
+        int q = (int) k + 1;
+        double s = sinPoly(r);
+        double c = cosPoly(r);
+        return ((q & 1) == 0 ? s : c) * (1 - (q & 2));
+    }
+
+    /** @return ln(x), to within 1e-12 */
+    public static double log(double x){
+        // Zero, negatives, subnormals, Infinity, and NaN
+        if(!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE))
+            return Math.log(x);
+
+        // x = m * 2^e, where sqrt(1/2) <= m < sqrt(2)
+        long bits = Double.doubleToRawLongBits(x);
+        int e = (int) (bits >>> 52) - 1023;
+        double m = Double.longBitsToDouble((bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L);
+        if(m > SQRT2){
+            m *= 0.5;
+            e++;
+        }
+
+        // ln(m) = 2*atanh(f), where f = (m-1)/(m+1) and |f| < .172. The series
+        //  to f^13 is off by at most 2*f^15/15 < 1e-12.
+        double f = (m - 1) / (m + 1);
+        double s = f*f;
+        double p = 2*f*(1 + s*(1.0/3 + s*(1.0/5 + s*(1.0/7 + s*(1.0/9
+                + s*(1.0/11 + s*(1.0/13)))))));
+        return e*LN2_HI + (p + e*LN2_LO);
+    }
+
+    /** @return atan2(y, x), to within 1e-10 */
+    public static double atan2(double y, double x){
+        double ax = Math.abs(x);
+        double ay = Math.abs(y);
+        // NaN, Infinity, and (0, 0) have their own rules
+        if(!(ax <= Double.MAX_VALUE && ay <= Double.MAX_VALUE) || (ax == 0 && ay == 0))
+            return Math.atan2(y, x);
+
+        // Reduce to atan(a) with 0 <= a <= 1, then to atan(t) with
+        //  |t| <= tan(pi/8)
+        boolean swap = ay > ax;
+        double a = swap ? ax / ay : ay / ax;
+        double base = 0;
+        if(a > TAN_PI_8){
+            a = (a - 1) / (a + 1);
+            base = Math.PI / 4;
+        }
+
+        // Taylor series to t^21, off by at most t^23/23 < 1e-10
+        double s = a*a;
+        double r = base + a*(1 + s*(-1.0/3 + s*(1.0/5 + s*(-1.0/7 + s*(1.0/9
+                + s*(-1.0/11 + s*(1.0/13 + s*(-1.0/15 + s*(1.0/17
+                + s*(-1.0/19 + s*(1.0/21)))))))))));
+
+        // Undo the reduction
+        if(swap)
+            r = Math.PI/2 - r;
+        if(x < 0)
+            r = Math.PI - r;
+        return Math.copySign(r, y);
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** sin(r) for |r| <= pi/4, Taylor series to r^11, off by at most 7e-12 */
+    private static double sinPoly(double r){
+        double s = r*r;
+        return r*(1 + s*(-1.0/6 + s*(1.0/120 + s*(-1.0/5040 + s*(1.0/362880
+                + s*(-1.0/39916800))))));
+    }
+
+    /** cos(r) for |r| <= pi/4, Taylor series to r^12, off by at most 4e-13 */
+    private static double cosPoly(double r){
+        double s = r*r;
+        return 1 + s*(-1.0/2 + s*(1.0/24 + s*(-1.0/720 + s*(1.0/40320
+                + s*(-1.0/3628800 + s*(1.0/479001600))))));
+    }
+
+}
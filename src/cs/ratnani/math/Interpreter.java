@@ -0,0 +1,128 @@
+package cs.ratnani.math;
+
+/**
+ * This class computes a compiled function using a register machine. Every
+ * position on the postfix stack is known ahead of time, so each operation is
+ * turned into an instruction that reads from and writes to fixed slots in a
+ * preallocated `double[]`. Computing a value therefore allocates nothing.
+ * Temporary slots, for values the optimizer shared, come after the stack.
+ *
+ * This class is not thread-safe, as the registers are reused between calls.
+ *
+ * @see CompiledFunction#newEvaluator()
+ * @see ScalarMath
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class Interpreter implements Evaluator {
+
+    // Instance Variables: -----------------------------------------------------
+
+    // For each instruction, the opcode and the registers it uses
+    private final int[] ops;
+    private final int[] dst;
+    private final int[] srcA;
+    private final int[] srcB;
+
+    // The literals, for `OP_CONST` instructions
+    private final double[] constRe;
+    private final double[] constIm;
+
+    // Two slots (re and im) for each position on the stack
+    private final double[] regs;
+
+    // The parameter, for `OP_T` instructions
+    private double tRe = 0;
+    private double tIm = 0;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    Interpreter(CompiledFunction f){
+        int n = f.getLength();
+        ops = new int[n];
+        dst = new int[n];
+        srcA = new int[n];
+        srcB = new int[n];
+        constRe = new double[n];
+        constIm = new double[n];
+        regs = new double[2 * (f.getMaxDepth() + f.getTemps())];
+
+        // Simulate the stack to find out which registers each instruction uses
+        int depth = 0;
+        for(int i = 0; i < n; i++){
+            int op = f.getOp(i);
+            ops[i] = op;
+            switch(CompiledFunction.arityOf(op)){
+                case 0:
+                    dst[i] = 2*depth;
+                    depth++;
+                    break;
+                case 1:
+                    srcA[i] = 2*(depth-1);
+                    dst[i] = srcA[i];
+                    break;
+                default:
+                    srcA[i] = 2*(depth-2);
+                    srcB[i] = 2*(depth-1);
+                    dst[i] = srcA[i];
+                    depth--;
+            }
+            // The temporary slot goes where there is no other register
+            if(op == CompiledFunction.OP_STORE)
+                srcB[i] = 2*(f.getMaxDepth() + f.getArg(i));
+            if(op == CompiledFunction.OP_LOAD)
+                srcA[i] = 2*(f.getMaxDepth() + f.getArg(i));
+            if(op == CompiledFunction.OP_CONST){
+                constRe[i] = f.getConst(i).getRe();
+                constIm[i] = f.getConst(i).getIm();
+            }
+        }
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    @Override
+    public void setT(double re, double im){
+        tRe = re;
+        tIm = im;
+    }
+
+    @Override
+    public void evaluate(double re, double im, double[] out){
+        double[] r = regs;
+        for(int i = 0; i < ops.length; i++){
+            int d = dst[i];
+            switch(ops[i]){
+                case CompiledFunction.OP_CONST: r[d] = constRe[i]; r[d+1] = constIm[i]; break;
+                case CompiledFunction.OP_Z: r[d] = re; r[d+1] = im; break;
+                case CompiledFunction.OP_T: r[d] = tRe; r[d+1] = tIm; break;
+                case CompiledFunction.OP_ADD: ScalarMath.add(r, d, srcA[i], srcB[i]); break;
+                case CompiledFunction.OP_SUB: ScalarMath.sub(r, d, srcA[i], srcB[i]); break;
+                case CompiledFunction.OP_MUL: ScalarMath.mul(r, d, srcA[i], srcB[i]); break;
+                case CompiledFunction.OP_DIV: ScalarMath.div(r, d, srcA[i], srcB[i]); break;
+                case CompiledFunction.OP_POW: ScalarMath.pow(r, d, srcA[i], srcB[i]); break;
+                case CompiledFunction.OP_POW_REAL: ScalarMath.powReal(r, d, srcA[i], srcB[i]); break;
+                case CompiledFunction.OP_SQRT: ScalarMath.sqrt(r, d, srcA[i]); break;
+                case CompiledFunction.OP_CONJ: ScalarMath.conj(r, d, srcA[i]); break;
+                case CompiledFunction.OP_INV: ScalarMath.inv(r, d, srcA[i]); break;
+                case CompiledFunction.OP_EXP: ScalarMath.exp(r, d, srcA[i]); break;
+                case CompiledFunction.OP_LN: ScalarMath.ln(r, d, srcA[i]); break;
+                case CompiledFunction.OP_SIN: ScalarMath.sin(r, d, srcA[i]); break;
+                case CompiledFunction.OP_COS: ScalarMath.cos(r, d, srcA[i]); break;
+                case CompiledFunction.OP_ABS: ScalarMath.abs(r, d, srcA[i]); break;
+                case CompiledFunction.OP_ARG: ScalarMath.arg(r, d, srcA[i]); break;
+                case CompiledFunction.OP_RE: ScalarMath.re(r, d, srcA[i]); break;
+                case CompiledFunction.OP_NEG: ScalarMath.neg(r, d, srcA[i]); break;
+                case CompiledFunction.OP_STORE: r[srcB[i]] = r[d]; r[srcB[i]+1] = r[d+1]; break;
+                case CompiledFunction.OP_LOAD: r[d] = r[srcA[i]]; r[d+1] = r[srcA[i]+1]; break;
+                default: ScalarMath.im(r, d, srcA[i]); // OP_IM
+            }
+        }
+        // The answer is always at the bottom of the stack
+        out[0] = r[0];
+        out[1] = r[1];
+    }
+
+}
@@ -0,0 +1,489 @@
+package cs.ratnani.math;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+
+/**
+ * This class shortens compiled functions before they are run, so that less is
+ * done at every pixel. The postfix program is turned into a graph of values,
+ * where equal subexpressions are always the same node (ex. both `z sin` in
+ * "z sin z sin *"). It is then simplified and written back out:
+ * <ol>
+ *     <li>Any subexpression that uses neither `z` nor `t` is folded into one
+ *         literal (ex. "2 3 ^" becomes "8"). The literal is computed by the
+ *         interpreter, so it is exactly what would have been computed at
+ *         every pixel.</li>
+ *     <li>Operations that do nothing are removed: "x 0 -" and "x conj conj"
+ *         become "x". Unless asked for exact results, so do "x 1 *",
+ *         "1 x *", "x 1 /", "x 0 +", "0 x +", and "x inv inv".</li>
+ *     <li>Unless asked for exact results, powers with a literal real
+ *         exponent skip `exp` and `ln`. Integers
+ *         up to `MAX_SQUARING` are done by repeated squaring (ex. "z 5 ^" is
+ *         ((z*z)*(z*z))*z), negative ones take the reciprocal of that, 0
+ *         gives 1, 1/2 and -1/2 use `OP_SQRT`, and any other real exponent
+ *         is done in polar form with `OP_POW_REAL`.</li>
+ *     <li>`sin`, `cos`, and `^` are expanded into the operations they are
+ *         made of (ex. "x sin" is exp(ix) and exp(-ix), subtracted, then
+ *         divided by 2i), so the parts they have in common with each other
+ *         are shared too (ex. "z sin z cos" only computes exp(iz) and
+ *         exp(-iz) once, and "z 2 ^ z 3 ^" only computes ln(z) once).</li>
+ *     <li>Expansions that ended up sharing nothing are put back together, as
+ *         the single operations are faster to run.</li>
+ *     <li>The graph is written out as postfix. The first time a value used in
+ *         more than one place is computed, it is saved to a temporary slot
+ *         with `OP_STORE`, and every other time it is read back with
+ *         `OP_LOAD`.</li>
+ * </ol>
+ * `CompiledFunction.toDagString()` lists what came out.
+ *
+ * Folding, sharing, and expanding never change a result, as the expansions
+ * do exactly the arithmetic `ScalarMath` does, and neither do the two
+ * identities that are always removed: subtracting +0 and negating twice give
+ * back every number as it was, down to the sign of zero, infinities, and
+ * NaN. So a function optimized for exact results is computed exactly as
+ * `ComplexMath` would, and plots of it are identical.
+ *
+ * The rest do change results. The faster powers change the last few bits
+ * (they are usually closer to the true value), and give 0 at 0 where
+ * `exp(ln(0) * n)` gives NaN. "x 0 +" turns -0 into +0, which moves a point
+ * across the branch cut of `ln` and `arg` on the negative real axis.
+ * Multiplying by 1 makes NaN out of an infinite part (inf * 0 is NaN) and can
+ * flip the sign of a zero, so removing it keeps values that would have been
+ * NaN. "x inv inv" rounds differently in the last bit, and gives 0 at 0
+ * where it would be NaN. These are only for `Precision.FAST`, which is not
+ * exact anyway.
+ *
+ * @see CompiledFunction#compile(String, boolean)
+ * @see CompiledFunction#toDagString()
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class Optimizer {
+
+    // Constants: --------------------------------------------------------------
+
+    // The literals the expansions use. Dividing by 2i and by 2 is done as
+    //  multiplying by 1/(2i) and 1/2, which is how `ComplexMath.div` does it.
+    private static final Complex I = new Complex(0, 1);
+    private static final Complex HALF_OVER_I = new Complex(0, -0.5);
+    private static final Complex HALF = new Complex(0.5, -0.0);
+    private static final Complex ONE = new Complex(1);
+    // Only this zero, not -0, leaves everything it is subtracted from alone
+    private static final Complex ZERO = new Complex(0, 0);
+
+    // The largest integer power done by repeated squaring. Larger ones go
+    //  through `OP_POW_REAL`, which costs the same no matter the exponent.
+    private static final int MAX_SQUARING = 64;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    // Whether to only make changes that leave every result the same
+    private final boolean exact;
+
+    // Every node made so far, so equal nodes are only made once
+    private final HashMap<Node, Node> nodes = new HashMap<>();
+
+    // How many times each node is used as an argument
+    private final IdentityHashMap<Node, Integer> uses = new IdentityHashMap<>();
+
+
+    private Optimizer(boolean exact){
+        this.exact = exact;
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Optimizes a valid postfix program.
+     *
+     * @param ops The opcodes
+     * @param consts The literal for each `OP_CONST`, null for every other
+     *               opcode
+     * @param exact Whether to only make changes that leave every result the
+     *              same (see above)
+     * @param outOps Where to put the new opcodes
+     * @param outConsts Where to put the new literals, lined up with `outOps`
+     * @param outArgs Where to put the temporary slots, lined up with `outOps`
+     */
+    static void optimize(int[] ops, Complex[] consts, boolean exact, ArrayList<Integer> outOps,
+                         ArrayList<Complex> outConsts, ArrayList<Integer> outArgs){
+        Optimizer o = new Optimizer(exact);
+
+        // Build the graph, simplifying and expanding as we go
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        for(int i = 0; i < ops.length; i++){
+            int arity = CompiledFunction.arityOf(ops[i]);
+            Node b = arity == 2 ? stack.pop() : null;
+            Node a = arity >= 1 ? stack.pop() : null;
+            stack.push(o.expand(o.simplify(o.make(ops[i], consts[i], a, b))));
+        }
+        Node root = stack.pop();
+
+        // Put back the expansions that share nothing
+        o.countUses(root);
+        root = o.contract(root, new IdentityHashMap<>());
+
+        // Write it out
+        o.uses.clear();
+        o.countUses(root);
+        o.emit(root, outOps, outConsts, outArgs, new IdentityHashMap<>());
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** @return The node for an operation, reusing an equal one if there is one */
+    private Node make(int op, Complex lit, Node a, Node b){
+        Node n = new Node(op, lit, a, b);
+        Node old = nodes.putIfAbsent(n, n);
+        return old == null ? n : old;
+    }
+
+    /** @return The node for a literal */
+    private Node literal(Complex c){
+        return make(CompiledFunction.OP_CONST, c, null, null);
+    }
+
+    /**
+     * Simplifies a node whose arguments have already been simplified.
+     *
+     * @return The node to use in its place
+     */
+    private Node simplify(Node n){
+        if(n.op == CompiledFunction.OP_CONST || n.op == CompiledFunction.OP_Z
+                || n.op == CompiledFunction.OP_T)
+            return n;
+
+        // Fold anything that does not depend on `z` or `t`
+        if(!n.varies)
+            return literal(fold(n));
+
+        if(exact){
+            switch(n.op){
+                case CompiledFunction.OP_SUB:
+                    if(isLiteral(n.b, ZERO))
+                        return n.a;
+                    break;
+                case CompiledFunction.OP_CONJ:
+                    if(n.a.op == n.op)
+                        return n.a.a;
+                    break;
+            }
+            return n;
+        }
+
+        switch(n.op){
+            case CompiledFunction.OP_MUL:
+                if(isConst(n.b, 1))
+                    return n.a;
+                if(isConst(n.a, 1))
+                    return n.b;
+                break;
+            case CompiledFunction.OP_DIV:
+                if(isConst(n.b, 1))
+                    return n.a;
+                break;
+            case CompiledFunction.OP_ADD:
+                if(isConst(n.b, 0))
+                    return n.a;
+                if(isConst(n.a, 0))
+                    return n.b;
+                break;
+            case CompiledFunction.OP_SUB:
+                if(isConst(n.b, 0))
+                    return n.a;
+                break;
+            case CompiledFunction.OP_POW:
+                return reducePow(n);
+            case CompiledFunction.OP_CONJ:
+            case CompiledFunction.OP_INV:
+                // These undo themselves
+                if(n.a.op == n.op)
+                    return n.a.a;
+                break;
+        }
+        return n;
+    }
+
+    /**
+     * Picks a faster way to raise to a power if the exponent is a real
+     * literal.
+     *
+     * @return The node to use in place of `n`
+     */
+    private Node reducePow(Node n){
+        if(n.b.op != CompiledFunction.OP_CONST)
+            return n;
+        double p = n.b.lit.getRe();
+        if(n.b.lit.getIm() != 0 || Double.isNaN(p) || Double.isInfinite(p))
+            return n;
+
+        if(p == Math.rint(p) && Math.abs(p) <= MAX_SQUARING){
+            int k = (int) Math.abs(p);
+            if(k == 0)
+                return literal(ONE);
+            Node ret = powInt(n.a, k);
+            return p < 0 ? make(CompiledFunction.OP_INV, null, ret, null) : ret;
+        }
+        if(Math.abs(p) == 0.5){
+            Node ret = make(CompiledFunction.OP_SQRT, null, n.a, null);
+            return p < 0 ? make(CompiledFunction.OP_INV, null, ret, null) : ret;
+        }
+        return make(CompiledFunction.OP_POW_REAL, null, n.a, n.b);
+    }
+
+    /**
+     * Raises to a positive integer power by repeated squaring. The halves
+     * are the same node, so each square is only computed once.
+     */
+    private Node powInt(Node x, int k){
+        if(k == 1)
+            return x;
+        Node half = powInt(x, k/2);
+        Node ret = make(CompiledFunction.OP_MUL, null, half, half);
+        if(k % 2 == 1)
+            ret = make(CompiledFunction.OP_MUL, null, ret, x);
+        return ret;
+    }
+
+    /**
+     * Expands `sin`, `cos`, and `^` into the operations `ScalarMath` does for
+     * them. Everything else is left alone.
+     */
+    private Node expand(Node n){
+        switch(n.op){
+            case CompiledFunction.OP_SIN:
+            case CompiledFunction.OP_COS: {
+                // exp(ix) and exp(-ix)
+                Node ix = make(CompiledFunction.OP_MUL, null, literal(I), n.a);
+                Node e = make(CompiledFunction.OP_EXP, null, ix, null);
+                Node f = make(CompiledFunction.OP_EXP, null,
+                        make(CompiledFunction.OP_NEG, null, ix, null), null);
+                if(n.op == CompiledFunction.OP_SIN)
+                    return make(CompiledFunction.OP_MUL, null,
+                            make(CompiledFunction.OP_SUB, null, e, f), literal(HALF_OVER_I));
+                return make(CompiledFunction.OP_MUL, null,
+                        make(CompiledFunction.OP_ADD, null, e, f), literal(HALF));
+            }
+            case CompiledFunction.OP_POW:
+                // exp(ln(a) * b)
+                return make(CompiledFunction.OP_EXP, null,
+                        make(CompiledFunction.OP_MUL, null,
+                                make(CompiledFunction.OP_LN, null, n.a, null), n.b),
+                        null);
+            default:
+                return n;
+        }
+    }
+
+    /** Counts how many times each node below `n` is used as an argument */
+    private void countUses(Node n){
+        for(Node arg : new Node[]{n.a, n.b}){
+            if(arg == null)
+                continue;
+            Integer u = uses.get(arg);
+            uses.put(arg, u == null ? 1 : u + 1);
+            // Only go down the first time we see it
+            if(u == null)
+                countUses(arg);
+        }
+    }
+
+    private int usesOf(Node n){
+        Integer u = uses.get(n);
+        return u == null ? 0 : u;
+    }
+
+    /**
+     * Rebuilds the graph, turning each expansion whose inner values are not
+     * used by anything else back into one operation.
+     *
+     * @param done The new node for each old one already rebuilt
+     */
+    private Node contract(Node n, IdentityHashMap<Node, Node> done){
+        Node ret = done.get(n);
+        if(ret != null)
+            return ret;
+
+        Node arg;
+        if((arg = matchSinCos(n, CompiledFunction.OP_SUB, HALF_OVER_I)) != null)
+            ret = make(CompiledFunction.OP_SIN, null, contract(arg, done), null);
+        else if((arg = matchSinCos(n, CompiledFunction.OP_ADD, HALF)) != null)
+            ret = make(CompiledFunction.OP_COS, null, contract(arg, done), null);
+        else if(n.op == CompiledFunction.OP_EXP
+                && n.a.op == CompiledFunction.OP_MUL && usesOf(n.a) == 1
+                && n.a.a.op == CompiledFunction.OP_LN && usesOf(n.a.a) == 1)
+            ret = make(CompiledFunction.OP_POW, null, contract(n.a.a.a, done), contract(n.a.b, done));
+        else
+            ret = make(
+                    n.op,
+                    n.lit,
+                    n.a == null ? null : contract(n.a, done),
+                    n.b == null ? null : contract(n.b, done)
+            );
+
+        done.put(n, ret);
+        return ret;
+    }
+
+    /**
+     * Checks if `n` is the expansion of `sin` or `cos` with nothing inside it
+     * used anywhere else.
+     *
+     * @param combine How exp(ix) and exp(-ix) are put together
+     * @param factor What that is multiplied by at the end
+     * @return The argument `x`, or null if `n` is not such an expansion
+     */
+    private Node matchSinCos(Node n, int combine, Complex factor){
+        if(n.op != CompiledFunction.OP_MUL || !isLiteral(n.b, factor))
+            return null;
+        Node c = n.a;
+        if(c.op != combine || usesOf(c) != 1)
+            return null;
+        Node e = c.a;
+        Node f = c.b;
+        if(e.op != CompiledFunction.OP_EXP || usesOf(e) != 1
+                || f.op != CompiledFunction.OP_EXP || usesOf(f) != 1
+                || f.a.op != CompiledFunction.OP_NEG || usesOf(f.a) != 1)
+            return null;
+        Node ix = e.a;
+        // Used once by `e` and once by the negation
+        if(f.a.a != ix || usesOf(ix) != 2
+                || ix.op != CompiledFunction.OP_MUL || !isLiteral(ix.a, I))
+            return null;
+        return ix.b;
+    }
+
+    /**
+     * Writes the graph out in postfix, computing each value once.
+     *
+     * @param slots The temporary slot of each shared node already written
+     */
+    private void emit(Node n, ArrayList<Integer> ops, ArrayList<Complex> consts,
+                      ArrayList<Integer> args, IdentityHashMap<Node, Integer> slots){
+        Integer slot = slots.get(n);
+        if(slot != null){
+            ops.add(CompiledFunction.OP_LOAD);
+            consts.add(null);
+            args.add(slot);
+            return;
+        }
+
+        if(n.a != null)
+            emit(n.a, ops, consts, args, slots);
+        if(n.b != null)
+            emit(n.b, ops, consts, args, slots);
+        ops.add(n.op);
+        consts.add(n.lit);
+        args.add(0);
+
+        // Leaves are as cheap to redo as to load
+        if(usesOf(n) > 1 && n.a != null){
+            slot = slots.size();
+            slots.put(n, slot);
+            ops.add(CompiledFunction.OP_STORE);
+            consts.add(null);
+            args.add(slot);
+        }
+    }
+
+    /**
+     * Computes a subexpression that uses neither `z` nor `t`, the same way it
+     * would be computed at every pixel.
+     */
+    private static Complex fold(Node n){
+        ArrayList<Integer> ops = new ArrayList<>();
+        ArrayList<Complex> consts = new ArrayList<>();
+        emitTree(n, ops, consts);
+
+        double[] out = new double[2];
+        new Interpreter(CompiledFunction.of(ops, consts)).evaluate(0, 0, out);
+        return new Complex(out[0], out[1]);
+    }
+
+    /** Writes a subexpression out in postfix, without sharing anything */
+    private static void emitTree(Node n, ArrayList<Integer> ops, ArrayList<Complex> consts){
+        if(n.a != null)
+            emitTree(n.a, ops, consts);
+        if(n.b != null)
+            emitTree(n.b, ops, consts);
+        ops.add(n.op);
+        consts.add(n.lit);
+    }
+
+    /** @return Whether `n` is the literal `re`+0i (either sign of zero) */
+    private static boolean isConst(Node n, double re){
+        return n.op == CompiledFunction.OP_CONST && n.lit.getRe() == re && n.lit.getIm() == 0;
+    }
+
+    /** @return Whether `n` is exactly the literal `c`, down to the bit */
+    private static boolean isLiteral(Node n, Complex c){
+        return n.op == CompiledFunction.OP_CONST && sameBits(n.lit, c);
+    }
+
+    private static boolean sameBits(Complex a, Complex b){
+        return Double.doubleToLongBits(a.getRe()) == Double.doubleToLongBits(b.getRe())
+                && Double.doubleToLongBits(a.getIm()) == Double.doubleToLongBits(b.getIm());
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * One operation and its arguments. Two nodes are equal if they do the
+     * same operation on the same argument nodes (or are the same literal), so
+     * once arguments are shared, equal expressions are found in one lookup.
+     */
+    private static class Node {
+
+        final int op;
+        // Only for `OP_CONST`
+        final Complex lit;
+        // The arguments, or null
+        final Node a;
+        final Node b;
+        // Whether `z` or `t` appears anywhere in this subexpression
+        final boolean varies;
+        private final int hash;
+
+        Node(int op, Complex lit, Node a, Node b){
+            this.op = op;
+            this.lit = lit;
+            this.a = a;
+            this.b = b;
+            this.varies = op == CompiledFunction.OP_Z || op == CompiledFunction.OP_T
+                    || (a != null && a.varies)
+                    || (b != null && b.varies);
+
+            int h = 31*op + System.identityHashCode(a);
+            h = 31*h + System.identityHashCode(b);
+            if(lit != null){
+                h = 31*h + Double.hashCode(lit.getRe());
+                h = 31*h + Double.hashCode(lit.getIm());
+            }
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Node))
+                return false;
+            Node n = (Node) o;
+            // The arguments are already shared, so compare them by identity
+            return op == n.op && a == n.a && b == n.b
+                    && (lit == null ? n.lit == null : n.lit != null && sameBits(lit, n.lit));
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package cs.ratnani.math;
+
+/**
+ * This enum lists how accurately a compiled function can be computed.
+ *
+ * @see CompiledFunction#newEvaluator(EvalMode, Precision)
+ * @see FastMath
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public enum Precision {
+
+    /**
+     * Use `Math.exp`, `Math.sin`, `Math.cos`, `Math.log`, and `Math.atan2`,
+     * which are accurate to the last bit or so. Every `EvalMode` gives the
+     * same results.
+     */
+    STRICT,
+
+    /**
+     * Use the approximations in `FastMath`, which are much faster but are
+     * off by up to about 1e-9 (see there for the exact bounds). This is good
+     * enough for anything drawn on screen, where a color level is 1/255.
+     * Functions are always computed with the batch interpreter in this mode,
+     * no matter which `EvalMode` is asked for.
+     */
+    FAST
+
+}
@@ -0,0 +1,172 @@
+package cs.ratnani.math;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * This class keeps track of where the time goes when computing a function:
+ * for each kind of token (`+`, `*`, `^`, `exp`, `sin`, ...) how many times it
+ * ran and how long it took in all, plus the same for coloring the results.
+ * It is filled in by an evaluator from `CompiledFunction.newEvaluator(Profile)`
+ * and by `ComplexMath.profile()`.
+ *
+ * The times come from timing each operation over a whole batch of points, so
+ * they are only as accurate as `System.nanoTime()` over a few hundred points.
+ * That is good enough to tell which part is slow, but not to compare two
+ * parts that are close.
+ *
+ * This class is not thread-safe; use one per evaluator.
+ *
+ * @see ComplexMath#profile(String, double, double, double, double, int, int, int)
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public final class Profile {
+
+    // Constants: --------------------------------------------------------------
+
+    // The name coloring is listed under
+    private static final String COLOR = "color";
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final String function;
+
+    // For each opcode, how many points it was run on and how long it took
+    private final long[] calls = new long[CompiledFunction.opcodes()];
+    private final long[] nanos = new long[CompiledFunction.opcodes()];
+
+    // The same for coloring
+    private long colorCalls = 0;
+    private long colorNanos = 0;
+
+    // How many points were computed
+    private long points = 0;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param function What is being profiled, for `toString()`
+     */
+    public Profile(String function){
+        this.function = function;
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return What is being profiled */
+    public String getFunction(){ return function; }
+
+    /** @return How many points were computed */
+    public long getPoints(){ return points; }
+
+    /** @return The time taken by every token and coloring, in nanoseconds */
+    public long getTotalNanos(){
+        long ret = colorNanos;
+        for(long n : nanos)
+            ret += n;
+        return ret;
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * @return Every token that ran, and coloring if it was timed, from the
+     *         one that took the most time to the one that took the least
+     */
+    public List<Entry> getRanked(){
+        List<Entry> ret = new ArrayList<>();
+        for(int op = 0; op < calls.length; op++)
+            if(calls[op] > 0)
+                ret.add(new Entry(CompiledFunction.nameOf(op), calls[op], nanos[op]));
+        if(colorCalls > 0)
+            ret.add(new Entry(COLOR, colorCalls, colorNanos));
+        Collections.sort(ret, (a, b) -> Long.compare(b.nanos, a.nanos));
+        return ret;
+    }
+
+    /** Forgets everything counted so far */
+    public void reset(){
+        for(int op = 0; op < calls.length; op++){
+            calls[op] = 0;
+            nanos[op] = 0;
+        }
+        colorCalls = 0;
+        colorNanos = 0;
+        points = 0;
+    }
+
+    /**
+     * @return A table of the tokens by how long they took, with the time per
+     *         call and their share of the total
+     */
+    @Override
+    public String toString(){
+        long total = getTotalNanos();
+        StringBuilder ret = new StringBuilder(String.format(
+                "Profile of `%s` over %d points (%.2f ms):%n", function, points, total / 1e6));
+        ret.append(String.format("  %-8s %12s %10s %10s %7s%n", "token", "calls", "ns/call", "total ms", "share"));
+        for(Entry e : getRanked())
+            ret.append(String.format("  %-8s %12d %10.2f %10.3f %6.1f%%%n",
+                    e.name, e.calls, e.getNanosPerCall(), e.nanos / 1e6,
+                    total == 0 ? 0.0 : 100.0 * e.nanos / total));
+        return ret.toString();
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** Counts `n` points of opcode `op` that took `time` nanoseconds */
+    void add(int op, int n, long time){
+        calls[op] += n;
+        nanos[op] += time;
+    }
+
+    /** Counts `n` points that took `time` nanoseconds to color */
+    void addColor(int n, long time){
+        colorCalls += n;
+        colorNanos += time;
+    }
+
+    /** Counts `n` points computed */
+    void addPoints(int n){
+        points += n;
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /** The totals for one token */
+    public static final class Entry {
+
+        private final String name;
+        private final long calls;
+        private final long nanos;
+
+        private Entry(String name, long calls, long nanos){
+            this.name = name;
+            this.calls = calls;
+            this.nanos = nanos;
+        }
+
+        /** @return The token, or "color" for coloring */
+        public String getName(){ return name; }
+
+        /** @return How many times it ran, once per point per use */
+        public long getCalls(){ return calls; }
+
+        /** @return How long it took in all, in nanoseconds */
+        public long getNanos(){ return nanos; }
+
+        /** @return How long it took per call, in nanoseconds */
+        public double getNanosPerCall(){ return calls == 0 ? 0 : (double) nanos / calls; }
+
+    }
+
+}
@@ -0,0 +1,234 @@
+package cs.ratnani.math;
+
+/**
+ * This class contains the same functions as `ComplexMath`, but they work on
+ * primitive doubles instead of `Complex` objects. Each complex number is a
+ * pair of slots in a `double[]`: the real part at some index `i` and the
+ * imaginary part at `i+1`. Every function reads its arguments from the array
+ * and writes its result back into it, so nothing is allocated.
+ *
+ * Each function does exactly the same arithmetic, in the same order, as its
+ * counterpart in `ComplexMath`, so the results are identical down to the bit
+ * (including NaN and Infinity). The destination may be the same as any of the
+ * arguments.
+ *
+ * @see ComplexMath
+ * @author Ammar Ratnani
+ * @version 2017.05.16
+ */
+final class ScalarMath {
+
+    private ScalarMath(){}
+
+    /** r[d] = r[a] + r[b] */
+    static void add(double[] r, int d, int a, int b){
+        double re = r[a] + r[b];
+        double im = r[a+1] + r[b+1];
+        r[d] = re;
+        r[d+1] = im;
+    }
+
+    /** r[d] = r[a] - r[b] */
+    static void sub(double[] r, int d, int a, int b){
+        double re = r[a] - r[b];
+        double im = r[a+1] - r[b+1];
+        r[d] = re;
+        r[d+1] = im;
+    }
+
+    /** r[d] = r[a] * r[b] */
+    static void mul(double[] r, int d, int a, int b){
+        double ar = r[a], ai = r[a+1];
+        double br = r[b], bi = r[b+1];
+        r[d] = ar*br - ai*bi;
+        r[d+1] = ai*br + ar*bi;
+    }
+
+    /** r[d] = r[a] / r[b] */
+    static void div(double[] r, int d, int a, int b){
+        // a / b == a * (1 / b)
+        double ar = r[a], ai = r[a+1];
+        double denom = r[b]*r[b] + r[b+1]*r[b+1];
+        double br = r[b]/denom;
+        double bi = -1 * (r[b+1]/denom);
+        r[d] = ar*br - ai*bi;
+        r[d+1] = ai*br + ar*bi;
+    }
+
+    /** r[d] = conj(r[a]) */
+    static void conj(double[] r, int d, int a){
+        r[d] = r[a];
+        r[d+1] = -1*r[a+1];
+    }
+
+    /** r[d] = 1 / r[a] */
+    static void inv(double[] r, int d, int a){
+        double zr = r[a], zi = r[a+1];
+        double denom = zr*zr + zi*zi;
+        r[d] = zr/denom;
+        r[d+1] = -1 * (zi/denom);
+    }
+
+    /** r[d] = -r[a], as `ComplexMath.negate()` computes it */
+    static void neg(double[] r, int d, int a){
+        r[d] = -1*r[a];
+        r[d+1] = -1*r[a+1];
+    }
+
+    /** r[d] = exp(r[a]) */
+    static void exp(double[] r, int d, int a){
+        double zr = r[a], zi = r[a+1];
+        // Only call `Math.exp` once
+        double e = Math.exp(zr);
+        r[d] = e * Math.cos(zi);
+        r[d+1] = e * Math.sin(zi);
+    }
+
+    /** r[d] = ln(r[a]) */
+    static void ln(double[] r, int d, int a){
+        double zr = r[a], zi = r[a+1];
+        r[d] = Math.log(Math.sqrt(zr*zr + zi*zi));
+        r[d+1] = Math.atan2(zi, zr);
+    }
+
+    /** r[d] = sin(r[a]) */
+    static void sin(double[] r, int d, int a){
+        double zr = r[a], zi = r[a+1];
+        // iz, as `mul(I,z)` computes it
+        double izr = 0.0*zr - 1.0*zi;
+        double izi = 1.0*zr + 0.0*zi;
+        // exp(iz) - exp(-iz)
+        double nr = -1*izr, ni = -1*izi;
+        double ep = Math.exp(izr), en = Math.exp(nr);
+        double sr = ep*Math.cos(izi) - en*Math.cos(ni);
+        double si = ep*Math.sin(izi) - en*Math.sin(ni);
+        // Divide by 2i: multiply by 1 / (0 + 2i) == 0 - .5i
+        r[d] = sr*0.0 - si*-0.5;
+        r[d+1] = si*0.0 + sr*-0.5;
+    }
+
+    /** r[d] = cos(r[a]) */
+    static void cos(double[] r, int d, int a){
+        double zr = r[a], zi = r[a+1];
+        // iz, as `mul(I,z)` computes it
+        double izr = 0.0*zr - 1.0*zi;
+        double izi = 1.0*zr + 0.0*zi;
+        // exp(iz) + exp(-iz)
+        double nr = -1*izr, ni = -1*izi;
+        double ep = Math.exp(izr), en = Math.exp(nr);
+        double sr = ep*Math.cos(izi) + en*Math.cos(ni);
+        double si = ep*Math.sin(izi) + en*Math.sin(ni);
+        // Divide by 2: multiply by 1 / (2 + 0i) == .5 - 0i
+        r[d] = sr*0.5 - si*-0.0;
+        r[d+1] = si*0.5 + sr*-0.0;
+    }
+
+    /** r[d] = r[a] ^ r[b], principal value */
+    static void pow(double[] r, int d, int a, int b){
+        // exp(ln(a) * b)
+        double ar = r[a], ai = r[a+1];
+        double lr = Math.log(Math.sqrt(ar*ar + ai*ai));
+        double li = Math.atan2(ai, ar);
+        double br = r[b], bi = r[b+1];
+        double mr = lr*br - li*bi;
+        double mi = li*br + lr*bi;
+        double e = Math.exp(mr);
+        r[d] = e * Math.cos(mi);
+        r[d+1] = e * Math.sin(mi);
+    }
+
+    /**
+     * r[d] = r[a] ^ Re(r[b]), principal value, in polar form:
+     * |a|^p * (cos(p*arg(a)) + i*sin(p*arg(a))). This does not match
+     * `ComplexMath.pow` down to the bit.
+     */
+    static void powReal(double[] r, int d, int a, int b){
+        double ar = r[a], ai = r[a+1];
+        double p = r[b];
+        double m = modulusPow(ar, ai, p);
+        double t = Math.atan2(ai, ar) * p;
+        r[d] = m * Math.cos(t);
+        r[d+1] = m * Math.sin(t);
+    }
+
+    /**
+     * r[d] = sqrt(r[a]), principal value, from the real and imaginary parts
+     * directly. This does not match `ComplexMath.pow` down to the bit.
+     */
+    static void sqrt(double[] r, int d, int a){
+        double ar = r[a], ai = r[a+1];
+        // The larger part of the answer, found without cancellation. Halving
+        //  each term first is the same as halving the sum, but cannot
+        //  overflow.
+        double t = Math.sqrt(0.5*modulus(ar, ai) + 0.5*Math.abs(ar));
+        r[d] = sqrtRe(ar, ai, t);
+        r[d+1] = sqrtIm(ar, ai, t);
+    }
+
+    /**
+     * |a|, for the faster powers. This is `Math.sqrt(ar*ar + ai*ai)` when the
+     * square is a normal double, and `Math.hypot` when it would overflow or
+     * underflow (ex. |a| > 1e154, whose square is infinite).
+     */
+    static double modulus(double ar, double ai){
+        double norm = ar*ar + ai*ai;
+        if(norm >= Double.MIN_NORMAL && norm < Double.POSITIVE_INFINITY)
+            return Math.sqrt(norm);
+        return Math.hypot(ar, ai);
+    }
+
+    /**
+     * |a|^p, as (|a|^2)^(p/2) to skip the square root when the square is a
+     * normal double, and from `Math.hypot` otherwise, as in `modulus()`.
+     */
+    static double modulusPow(double ar, double ai, double p){
+        double norm = ar*ar + ai*ai;
+        if(norm >= Double.MIN_NORMAL && norm < Double.POSITIVE_INFINITY)
+            return Math.pow(norm, 0.5*p);
+        return Math.pow(Math.hypot(ar, ai), p);
+    }
+
+    /**
+     * The real part of `sqrt(ar + ai*i)`, given the larger part of the answer
+     * `t`. This and `sqrtIm()` hold the only branches in `sqrt()`, so
+     * `EvaluatorGenerator` can call them and keep its code straight-line.
+     */
+    static double sqrtRe(double ar, double ai, double t){
+        if(t == 0)
+            return 0.0;
+        return ar >= 0 ? t : Math.abs(ai) / (2*t);
+    }
+
+    /** The imaginary part of `sqrt(ar + ai*i)`, as for `sqrtRe()` */
+    static double sqrtIm(double ar, double ai, double t){
+        if(t == 0)
+            return ai;
+        return ar >= 0 ? ai / (2*t) : Math.copySign(t, ai);
+    }
+
+    /** r[d] = |r[a]| */
+    static void abs(double[] r, int d, int a){
+        double zr = r[a], zi = r[a+1];
+        r[d] = Math.sqrt(zr*zr + zi*zi);
+        r[d+1] = 0.0;
+    }
+
+    /** r[d] = arg(r[a]) */
+    static void arg(double[] r, int d, int a){
+        r[d] = Math.atan2(r[a+1], r[a]);
+        r[d+1] = 0.0;
+    }
+
+    /** r[d] = Re(r[a]) */
+    static void re(double[] r, int d, int a){
+        r[d] = r[a];
+        r[d+1] = 0.0;
+    }
+
+    /** r[d] = Im(r[a]) */
+    static void im(double[] r, int d, int a){
+        r[d] = r[a+1];
+        r[d+1] = 0.0;
+    }
+
+}
@@ -0,0 +1,50 @@
+package cs.ratnani.math;
+
+/**
+ * This interface is the arithmetic from `ComplexKernels` that `VectorKernels`
+ * can do a whole vector at a time. `ComplexKernels` only knows
+ * `VectorKernels` through this interface, and loads it by name, so the rest
+ * of the program still compiles (ex. with a plain `javac`) without
+ * `--add-modules jdk.incubator.vector`.
+ *
+ * Every function only does whole vectors, and returns how far it got; the
+ * caller does the last few points one at a time.
+ *
+ * @see ComplexKernels
+ * @see VectorKernels
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+interface VectorArithmetic {
+
+    /**
+     * @return Whether vectors hold more than one double on this machine. If
+     *         not, vectors only add overhead.
+     */
+    boolean isUsable();
+
+    /** a = a + b, for the first `n` elements rounded down to whole vectors */
+    int add(double[] ar, double[] ai, double[] br, double[] bi, int n);
+
+    /** a = a - b, for the first `n` elements rounded down to whole vectors */
+    int sub(double[] ar, double[] ai, double[] br, double[] bi, int n);
+
+    /** a = a * b, for the first `n` elements rounded down to whole vectors */
+    int mul(double[] ar, double[] ai, double[] br, double[] bi, int n);
+
+    /** a = a / b, for the first `n` elements rounded down to whole vectors */
+    int div(double[] ar, double[] ai, double[] br, double[] bi, int n);
+
+    /** a = conj(a), for the first `n` elements rounded down to whole vectors */
+    int conj(double[] ar, double[] ai, int n);
+
+    /** a = -a, for the first `n` elements rounded down to whole vectors */
+    int neg(double[] ar, double[] ai, int n);
+
+    /** a = 1 / a, for the first `n` elements rounded down to whole vectors */
+    int inv(double[] ar, double[] ai, int n);
+
+    /** a = |a|, for the first `n` elements rounded down to whole vectors */
+    int abs(double[] ar, double[] ai, int n);
+
+}
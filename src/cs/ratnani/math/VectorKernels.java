@@ -0,0 +1,146 @@
+package cs.ratnani.math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * This class has the arithmetic from `ComplexKernels`, written with the
+ * Vector API (`jdk.incubator.vector`) so each step works on as many points at
+ * once as the machine's widest registers hold (ex. 4 with AVX2, 8 with
+ * AVX-512). The JIT turns each vector operation straight into one SIMD
+ * instruction, instead of hoping its own loop analysis finds them.
+ *
+ * Every function only does whole vectors, and returns how far it got; the
+ * caller does the last few points one at a time. `ComplexKernels` loads this
+ * class by name, through `VectorArithmetic`, and only if the program was run
+ * with `--add-modules jdk.incubator.vector`. Nothing else refers to it, so it
+ * is only compiled when asked for (as Maven does), with the same option.
+ *
+ * Adding, subtracting, multiplying, dividing, and square roots are rounded
+ * the same way on a vector as on one number, and everything is done in the
+ * same order as `ComplexKernels`, so the results are identical down to the
+ * bit. `exp`, `sin`, etc. have no vector versions that are, so they stay in
+ * `ComplexKernels`.
+ *
+ * @see ComplexKernels
+ * @see VectorArithmetic
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class VectorKernels implements VectorArithmetic {
+
+    // Constants: --------------------------------------------------------------
+
+    // The widest vectors the machine has
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+
+    // Made by `ComplexKernels`, by name
+    VectorKernels(){}
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    @Override
+    public boolean isUsable(){
+        return S.length() > 1;
+    }
+
+    @Override
+    public int add(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector.fromArray(S, ar, j).add(DoubleVector.fromArray(S, br, j)).intoArray(ar, j);
+            DoubleVector.fromArray(S, ai, j).add(DoubleVector.fromArray(S, bi, j)).intoArray(ai, j);
+        }
+        return end;
+    }
+
+    @Override
+    public int sub(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector.fromArray(S, ar, j).sub(DoubleVector.fromArray(S, br, j)).intoArray(ar, j);
+            DoubleVector.fromArray(S, ai, j).sub(DoubleVector.fromArray(S, bi, j)).intoArray(ai, j);
+        }
+        return end;
+    }
+
+    @Override
+    public int mul(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector xr = DoubleVector.fromArray(S, ar, j);
+            DoubleVector xi = DoubleVector.fromArray(S, ai, j);
+            DoubleVector yr = DoubleVector.fromArray(S, br, j);
+            DoubleVector yi = DoubleVector.fromArray(S, bi, j);
+            xr.mul(yr).sub(xi.mul(yi)).intoArray(ar, j);
+            xi.mul(yr).add(xr.mul(yi)).intoArray(ai, j);
+        }
+        return end;
+    }
+
+    @Override
+    public int div(double[] ar, double[] ai, double[] br, double[] bi, int n){
+        // a / b == a * (1 / b)
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector xr = DoubleVector.fromArray(S, ar, j);
+            DoubleVector xi = DoubleVector.fromArray(S, ai, j);
+            DoubleVector yr = DoubleVector.fromArray(S, br, j);
+            DoubleVector yi = DoubleVector.fromArray(S, bi, j);
+            DoubleVector denom = yr.mul(yr).add(yi.mul(yi));
+            DoubleVector vr = yr.div(denom);
+            DoubleVector vi = yi.div(denom).mul(-1.0);
+            xr.mul(vr).sub(xi.mul(vi)).intoArray(ar, j);
+            xi.mul(vr).add(xr.mul(vi)).intoArray(ai, j);
+        }
+        return end;
+    }
+
+    @Override
+    public int conj(double[] ar, double[] ai, int n){
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length())
+            DoubleVector.fromArray(S, ai, j).mul(-1.0).intoArray(ai, j);
+        return end;
+    }
+
+    @Override
+    public int neg(double[] ar, double[] ai, int n){
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector.fromArray(S, ar, j).mul(-1.0).intoArray(ar, j);
+            DoubleVector.fromArray(S, ai, j).mul(-1.0).intoArray(ai, j);
+        }
+        return end;
+    }
+
+    @Override
+    public int inv(double[] ar, double[] ai, int n){
+        int end = S.loopBound(n);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector xr = DoubleVector.fromArray(S, ar, j);
+            DoubleVector xi = DoubleVector.fromArray(S, ai, j);
+            DoubleVector denom = xr.mul(xr).add(xi.mul(xi));
+            xr.div(denom).intoArray(ar, j);
+            xi.div(denom).mul(-1.0).intoArray(ai, j);
+        }
+        return end;
+    }
+
+    @Override
+    public int abs(double[] ar, double[] ai, int n){
+        int end = S.loopBound(n);
+        DoubleVector zero = DoubleVector.zero(S);
+        for(int j = 0; j < end; j += S.length()){
+            DoubleVector xr = DoubleVector.fromArray(S, ar, j);
+            DoubleVector xi = DoubleVector.fromArray(S, ai, j);
+            xr.mul(xr).add(xi.mul(xi)).sqrt().intoArray(ar, j);
+            zero.intoArray(ai, j);
+        }
+        return end;
+    }
+
+}
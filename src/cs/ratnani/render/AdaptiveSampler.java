@@ -0,0 +1,360 @@
+package cs.ratnani.render;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.Evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * This class plots one tile without computing the function at every pixel,
+ * for `PlotRenderer.renderAdaptive()`. Most of a plot is smooth, and there
+ * the function can be filled in from a few points around it.
+ *
+ * The tile starts out cut into blocks of `START` pixels. For each block, the
+ * function is computed at its corners, the middle of each edge, and its
+ * center. If all five of the points that are not corners come out the same
+ * color (within the tolerance) as they would if they were filled in from the
+ * corners, the block looks smooth. It is then checked again at the middle of
+ * each edge and the center of each of its quarters, which are the points its
+ * quarters would need anyway, and only if those match too is the rest of it
+ * filled in from the corners. Otherwise the block is cut into four and each
+ * is tried again, down to blocks of 2x2 pixels, where every pixel has been
+ * computed.
+ *
+ * Matching colors at a few points is not enough near poles, zeros and branch
+ * cuts (ex. of `ln` and `arg`), where the function can change a lot between
+ * them, or near the seams where the colors of `Complex.getRGB()` jump
+ * (arg = 1-pi, 2-pi, ... 5-pi). So a block is also never filled in if any of
+ * the points checked:
+ * <ul>
+ *     <li>is not finite,</li>
+ *     <li>differs from the center by more than `RELATIVE` times the smaller
+ *         of the two in size. Near a zero or a pole, the function changes by
+ *         about its own size across the block, so blocks around one are
+ *         always cut down to the pixel. The jump across a branch cut is big
+ *         compared to the values on either side, so it is caught too.</li>
+ *     <li>is on the other side of a seam from the center. The values filled
+ *         in are a weighted average of the corners, and the part of the plane
+ *         between two seams is less than half of it, so if the corners are
+ *         all between the same two seams, every filled in value is too.</li>
+ * </ul>
+ *
+ * Still, only the points checked are known to be within the tolerance. Over
+ * a range of functions and views at 640x384 (see `renderAdaptive()`), at
+ * most 0.06% of the pixels came out further off, and by one level at most.
+ *
+ * The pixels that were computed are exactly what `render()` would make.
+ * Filled in pixels have their values filled in, not their colors, and are
+ * then colored like any other, so hues wrap around correctly.
+ *
+ * This class is not thread-safe. Each tile gets its own.
+ *
+ * @see PlotRenderer#renderAdaptive(RenderJob, int)
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+final class AdaptiveSampler {
+
+    // Constants: --------------------------------------------------------------
+
+    // The size of the blocks to start from. Smooth blocks this size need
+    //  only 25 points for 256 pixels (and their edges are shared).
+    static final int START = 16;
+
+    // How much a value can differ from the center of its block, compared to
+    //  its size, before the block is cut up no matter what the colors are
+    private static final double RELATIVE = 0.5;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final Viewport viewport;
+    private final ColorMap colors;
+    private final Evaluator evaluator;
+    private final int tolerance;
+
+    // The tile is the pixels [c0, c0 + w) x [r0, r0 + h)
+    private final int c0;
+    private final int r0;
+    private final int w;
+    private final int h;
+
+    // The values at each point of the tile, plus one more column and row so
+    //  the blocks on the far edges have corners. Point (x, y) is at
+    //  `y * stride + x`.
+    private final int stride;
+    private final double[] fr;
+    private final double[] fi;
+    // Whether each point was computed, or is about to be
+    private final boolean[] known;
+
+    // The points waiting to be computed, and room for their inputs
+    private final int[] queue;
+    private int queued = 0;
+    private final double[] qRe;
+    private final double[] qIm;
+
+    private int evaluations = 0;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param job What to plot
+     * @param evaluator How to compute the job's function
+     * @param tolerance How far apart, in each of red, green, and blue (out of
+     *                  255), the colors can be for a block to be smooth
+     * @param c0 The first column of the tile
+     * @param r0 The first row of the tile
+     * @param w How many columns the tile has
+     * @param h How many rows the tile has
+     */
+    AdaptiveSampler(RenderJob job, Evaluator evaluator, int tolerance, int c0, int r0, int w, int h){
+        this.viewport = job.getViewport();
+        this.colors = job.getColors();
+        this.evaluator = evaluator;
+        this.tolerance = tolerance;
+        this.c0 = c0;
+        this.r0 = r0;
+        this.w = w;
+        this.h = h;
+
+        stride = w + 1;
+        int points = stride * (h + 1);
+        fr = new double[points];
+        fi = new double[points];
+        known = new boolean[points];
+        queue = new int[points];
+        qRe = new double[points];
+        qIm = new double[points];
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return How many points the function has been computed at */
+    int getEvaluations(){ return evaluations; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Plots the tile.
+     *
+     * @return The colors, as from `ColorMap`, row after row
+     */
+    int[] sample(){
+        // Each block is {x0, y0, x1, y1}, the points on its corners
+        List<int[]> blocks = new ArrayList<>();
+        for(int y0 = 0; y0 < h; y0 += START)
+            for(int x0 = 0; x0 < w; x0 += START)
+                blocks.add(new int[]{x0, y0, Math.min(x0 + START, w), Math.min(y0 + START, h)});
+
+        // Go a level at a time, so each level's points are computed together
+        List<int[]> smooth = new ArrayList<>();
+        while(!blocks.isEmpty()){
+            for(int[] b : blocks){
+                int xm = (b[0] + b[2]) >>> 1;
+                int ym = (b[1] + b[3]) >>> 1;
+                for(int y : new int[]{b[1], ym, b[3]})
+                    for(int x : new int[]{b[0], xm, b[2]})
+                        need(x, y);
+            }
+            flush();
+
+            List<int[]> next = new ArrayList<>();
+            List<int[]> likely = new ArrayList<>();
+            for(int[] b : blocks){
+                // Every point in blocks this small is computed by now
+                if(b[2] - b[0] <= 2 && b[3] - b[1] <= 2)
+                    continue;
+                if(isSmooth(b, grid(b[0], b[2], 1), grid(b[1], b[3], 1)))
+                    likely.add(b);
+                else
+                    split(b, next);
+            }
+
+            // Look closer at the ones that seem smooth
+            for(int[] b : likely)
+                for(int y : grid(b[1], b[3], 2))
+                    for(int x : grid(b[0], b[2], 2))
+                        need(x, y);
+            flush();
+            for(int[] b : likely){
+                if(isSmooth(b, grid(b[0], b[2], 2), grid(b[1], b[3], 2)))
+                    smooth.add(b);
+                else
+                    split(b, next);
+            }
+            blocks = next;
+        }
+
+        // Fill in the smooth blocks. Their edges may have been computed for a
+        //  block next to them, in which case that is kept.
+        for(int[] b : smooth)
+            fill(b);
+
+        int[] ret = new int[w * h];
+        double[] re = new double[w];
+        double[] im = new double[w];
+        for(int y = 0; y < h; y++){
+            System.arraycopy(fr, y * stride, re, 0, w);
+            System.arraycopy(fi, y * stride, im, 0, w);
+            colors.getRGB(re, im, w, ret, y * w);
+        }
+        return ret;
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** Queues point (x, y) to be computed, if it has not been */
+    private void need(int x, int y){
+        int i = y * stride + x;
+        if(!known[i]){
+            known[i] = true;
+            queue[queued++] = i;
+        }
+    }
+
+    /** Computes every queued point at once */
+    private void flush(){
+        for(int k = 0; k < queued; k++){
+            qRe[k] = viewport.reAt(c0 + queue[k] % stride);
+            qIm[k] = viewport.imAt(r0 + queue[k] / stride);
+        }
+        evaluator.evaluateBatch(qRe, qIm, queued);
+        for(int k = 0; k < queued; k++){
+            fr[queue[k]] = qRe[k];
+            fi[queue[k]] = qIm[k];
+        }
+        evaluations += queued;
+        queued = 0;
+    }
+
+    /**
+     * @param b A block
+     * @param xs The columns to check, which have been computed in every row
+     *           of `ys`. The first and last are the block's edges.
+     * @param ys The rows to check
+     * @return Whether the rest of the block can be filled in from its corners
+     */
+    private boolean isSmooth(int[] b, int[] xs, int[] ys){
+        // Compare everything to the center, for zeros, poles, cuts, and seams
+        int center = ((b[1] + b[3]) >>> 1) * stride + ((b[0] + b[2]) >>> 1);
+        double cAbs = Math.hypot(fr[center], fi[center]);
+        int cSide = side(fr[center], fi[center]);
+        for(int y : ys){
+            for(int x : xs){
+                int i = y * stride + x;
+                if(!Double.isFinite(fr[i]) || !Double.isFinite(fi[i]))
+                    return false;
+                double diff = Math.hypot(fr[i] - fr[center], fi[i] - fi[center]);
+                if(diff > RELATIVE * Math.min(cAbs, Math.hypot(fr[i], fi[i])))
+                    return false;
+                if(side(fr[i], fi[i]) != cSide)
+                    return false;
+            }
+        }
+
+        // Then check the colors of the points that are not corners. Those
+        //  match by definition.
+        for(int y : ys)
+            for(int x : xs)
+                if(!matches(b, x, y))
+                    return false;
+        return true;
+    }
+
+    /**
+     * @return Which part of the plane between two seams of `Complex.getRGB()`
+     *         re + im*i is in, numbered 0 to 4. The colors jump where the hue
+     *         (pi + arg) crosses 1, 2, 3, 4, and 5, but not where it wraps
+     *         around from 2*pi to 0.
+     */
+    private static int side(double re, double im){
+        int ret = (int) ((Math.PI + Math.atan2(im, re)) % (2*Math.PI));
+        return ret >= 5 ? 0 : ret;
+    }
+
+    /**
+     * @param a The first point of a block's edge
+     * @param b The last point of a block's edge
+     * @param depth How many times to halve the edge
+     * @return The points that cuts [a, b] into 2^depth parts, as evenly as
+     *         possible, without repeats
+     */
+    private static int[] grid(int a, int b, int depth){
+        int[] ret = new int[(1 << depth) + 1];
+        int n = 0;
+        for(int k = 0; k <= 1 << depth; k++){
+            int p = a + (int) ((long) (b - a) * k >> depth);
+            if(n == 0 || ret[n-1] != p)
+                ret[n++] = p;
+        }
+        return Arrays.copyOf(ret, n);
+    }
+
+    /**
+     * @return Whether point (x, y) is about the same color as it would be if
+     *         it were filled in from the corners of block `b`
+     */
+    private boolean matches(int[] b, int x, int y){
+        int i = y * stride + x;
+        int actual = colors.getRGB(fr[i], fi[i]);
+        int guess = colors.getRGB(lerp(fr, b, x, y), lerp(fi, b, x, y));
+        for(int shift = 0; shift <= 16; shift += 8){
+            int d = ((actual >> shift) & 0xFF) - ((guess >> shift) & 0xFF);
+            if(Math.abs(d) > tolerance)
+                return false;
+        }
+        return true;
+    }
+
+    /** Fills in every point of block `b` that was not computed */
+    private void fill(int[] b){
+        for(int y = b[1]; y <= b[3]; y++){
+            for(int x = b[0]; x <= b[2]; x++){
+                int i = y * stride + x;
+                if(!known[i]){
+                    fr[i] = lerp(fr, b, x, y);
+                    fi[i] = lerp(fi, b, x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param f The real or imaginary parts
+     * @return What point (x, y) would be if filled in from the corners of
+     *         block `b`, in `f`
+     */
+    private double lerp(double[] f, int[] b, int x, int y){
+        int x0 = b[0], y0 = b[1], x1 = b[2], y1 = b[3];
+        // Blocks are at least one pixel wide and high
+        double u = (double) (x - x0) / (x1 - x0);
+        double v = (double) (y - y0) / (y1 - y0);
+        double top = f[y0 * stride + x0] + u * (f[y0 * stride + x1] - f[y0 * stride + x0]);
+        double bottom = f[y1 * stride + x0] + u * (f[y1 * stride + x1] - f[y1 * stride + x0]);
+        return top + v * (bottom - top);
+    }
+
+    /** Cuts block `b` into (up to) four and adds them to `out` */
+    private static void split(int[] b, List<int[]> out){
+        int[] xs = cuts(b[0], b[2]);
+        int[] ys = cuts(b[1], b[3]);
+        for(int j = 0; j + 1 < ys.length; j++)
+            for(int i = 0; i + 1 < xs.length; i++)
+                out.add(new int[]{xs[i], ys[j], xs[i+1], ys[j+1]});
+    }
+
+    /** @return Where to cut [a, b] in half, if it can be */
+    private static int[] cuts(int a, int b){
+        int m = (a + b) >>> 1;
+        return m > a ? new int[]{a, m, b} : new int[]{a, b};
+    }
+
+}
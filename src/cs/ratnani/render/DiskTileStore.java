@@ -0,0 +1,542 @@
+package cs.ratnani.render;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+/**
+ * This class keeps plotted tiles on disk so they last between runs of the
+ * program. It sits behind a `TileCache`, which asks it for the tiles it does
+ * not have in memory and hands it every new tile.
+ *
+ * Tiles are appended to segment files (`seg-N.tiles`) in a directory. Each
+ * segment is memory-mapped with `FileChannel.map`, so reading a tile is a
+ * copy out of the page cache and writing one is a copy into it. A record is:
+ * <pre>
+ *     int magic, int key length, int pixel count, int CRC-32
+ *     key bytes (from `TileCache.Key.toBytes()`)
+ *     pixels, as little-endian ints
+ * </pre>
+ * The index from keys to records only lives in memory. It is built when the
+ * store is opened by walking the record headers of every segment, which are
+ * small and next to each other.
+ *
+ * Appends are crash-safe: the key and pixels are written first, and the
+ * magic number last. A record that was cut off before its magic number was
+ * written is not there at all, and is written over by the next append. If
+ * the pages of a record reached the disk out of order, its checksum will not
+ * match, and it is dropped when it is read. A full segment is forced to disk
+ * before the next one is started, so only the newest segment is ever at risk.
+ *
+ * The store is bounded in size. When it goes over, the oldest segment is
+ * deleted along with every tile in it. A tile that is read from the oldest
+ * segment is appended again first, so tiles that keep being used stay
+ * around.
+ *
+ * Every append is done by one background thread, so `put()` returns right
+ * away and the threads plotting never wait on the disk (ex. while a full
+ * segment is forced). If that thread falls more than `WRITE_QUEUE` tiles
+ * behind, new tiles are dropped, since the store is only a cache anyway.
+ * Everything else is synchronized, so one store can be shared by any number
+ * of threads and caches.
+ *
+ * While it is open, the store holds a lock on the file `lock` in its
+ * directory, so a second program (or a second store in this one) cannot open
+ * the same directory and write over its segments.
+ *
+ * @see TileCache
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class DiskTileStore implements Closeable {
+
+    // Constants: --------------------------------------------------------------
+
+    /** How big each segment file is */
+    public static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    /** How many tiles can be waiting to be appended before more are dropped */
+    public static final int WRITE_QUEUE = 1024;
+
+    // Marks a record as completely written ("TILE")
+    private static final int MAGIC = 0x54494C45;
+    // The size of a record's header
+    private static final int HEADER_BYTES = 16;
+
+    private static DiskTileStore defaultStore;
+    private static boolean triedDefault = false;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final File dir;
+    private final long maxBytes;
+
+    // Held for as long as the store is open. Closing the channel releases it.
+    private final FileChannel lockChannel;
+    // Does every append, see above
+    private final ThreadPoolExecutor writer;
+
+    // Every segment, oldest first, by number
+    private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<>();
+    // The keys in each segment, so they can be dropped with it
+    private final HashMap<Integer, List<ByteBuffer>> segmentKeys = new HashMap<>();
+    // Where the next record goes in the newest segment
+    private int appendAt = 0;
+
+    // Where each tile is. The keys wrap the bytes from `Key.toBytes()`.
+    private final HashMap<ByteBuffer, Location> index = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    // Read by `put()` without the lock
+    private volatile boolean closed = false;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * Opens the store in a directory, making the directory if it is not
+     * there, and reads the index of whatever tiles it already has.
+     *
+     * @throws IOException If the directory or its segments cannot be used,
+     *                     or another store has the directory open
+     * @throws IllegalArgumentException If `maxBytes` is smaller than two
+     *                                  segments
+     * @param dir Where the segment files go
+     * @param maxBytes The most space the segment files may take up
+     */
+    public DiskTileStore(File dir, long maxBytes) throws IOException {
+        if(maxBytes < 2L * SEGMENT_BYTES)
+            throw new IllegalArgumentException("Store must hold at least two segments");
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not make " + dir);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+
+        lockChannel = FileChannel.open(
+                new File(dir, "lock").toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE
+        );
+        try{
+            FileLock lock;
+            try{
+                lock = lockChannel.tryLock();
+            } catch(OverlappingFileLockException e){
+                // Another store in this program has it
+                lock = null;
+            }
+            if(lock == null)
+                throw new IOException(dir + " is in use by another tile store");
+            load();
+        } catch(IOException | RuntimeException e){
+            lockChannel.close();
+            throw e;
+        }
+
+        writer = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(WRITE_QUEUE),
+                r -> {
+                    Thread t = new Thread(r, "Tile Store Writer");
+                    // Do not keep the program open
+                    t.setDaemon(true);
+                    return t;
+                },
+                // Also drops anything put after `close()`
+                new ThreadPoolExecutor.DiscardPolicy()
+        );
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /**
+     * @return The store shared by the whole program, or null if there is none.
+     *         Its directory is read from the system property
+     *         `cs.ratnani.tileStoreDir` (by default `.cs-ratnani-tiles` in the
+     *         user's home directory), and its size in megabytes from
+     *         `cs.ratnani.tileStoreMB` (by default 256). A size of 0 turns it
+     *         off. There is also none if another program already has the
+     *         directory open.
+     */
+    public static synchronized DiskTileStore getDefault(){
+        if(!triedDefault){
+            triedDefault = true;
+            long mb = Long.getLong("cs.ratnani.tileStoreMB", 256);
+            if(mb > 0){
+                File dir = new File(System.getProperty(
+                        "cs.ratnani.tileStoreDir",
+                        new File(System.getProperty("user.home"), ".cs-ratnani-tiles").getPath()
+                ));
+                try{
+                    defaultStore = new DiskTileStore(dir, mb * 1024L * 1024L);
+                } catch(IOException | IllegalArgumentException e){
+                    // Just go without one
+                    System.err.println("Not using the tile store: " + e.getMessage());
+                }
+            }
+        }
+        return defaultStore;
+    }
+
+    /** @return The directory the segment files are in */
+    public File getDirectory(){ return dir; }
+
+    /** @return The most space the segment files may take up */
+    public long getMaxBytes(){ return maxBytes; }
+
+    /** @return How much space the segment files take up now */
+    public synchronized long getBytes(){ return (long) segments.size() * SEGMENT_BYTES; }
+
+    /** @return How many tiles are stored */
+    public synchronized int getSize(){ return index.size(); }
+
+    /** @return How many calls to `get()` found a tile */
+    public synchronized long getHits(){ return hits; }
+
+    /** @return How many calls to `get()` did not find a tile */
+    public synchronized long getMisses(){ return misses; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Reads a tile, counting whether it was found.
+     *
+     * @param k The tile to look for
+     * @return The tile's pixels, row after row, or null if it is not stored
+     *         (or did not survive a crash)
+     */
+    public synchronized int[] get(TileCache.Key k){
+        ByteBuffer key = keyOf(k);
+        Location l = key == null ? null : index.get(key);
+        if(l == null){
+            misses++;
+            return null;
+        }
+
+        ByteBuffer b = record(l);
+        int[] ret = new int[b.getInt(8)];
+        int crc = b.getInt(12);
+        b.position(HEADER_BYTES + b.getInt(4));
+        b.asIntBuffer().get(ret);
+        if(crc != checksum(key, ret)){
+            // Torn by a crash
+            index.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+
+        // Keep it from being evicted with the oldest segment
+        if(l.segment == segments.firstKey() && segments.size() > 1)
+            writer.execute(() -> write(key, ret, true));
+        return ret;
+    }
+
+    /**
+     * Checks for a tile without reading it or counting it as a lookup.
+     *
+     * @param k The tile to look for
+     * @return Whether the tile is stored
+     */
+    public synchronized boolean contains(TileCache.Key k){
+        ByteBuffer key = keyOf(k);
+        return key != null && index.containsKey(key);
+    }
+
+    /**
+     * Queues a tile to be appended, unless it is already stored or its colors
+     * cannot be saved (see `ColorMap.getId()`). This does not wait for it to
+     * be written.
+     *
+     * @param k The tile's key
+     * @param rgb The tile's pixels, row after row. These must not be changed
+     *            afterwards.
+     */
+    public void put(TileCache.Key k, int[] rgb){
+        if(closed)
+            return;
+        writer.execute(() -> {
+            ByteBuffer key = keyOf(k);
+            if(key != null)
+                write(key, rgb, false);
+        });
+    }
+
+    /**
+     * Finishes the appends that were queued, forces everything written to
+     * disk, and stops using the segments and the directory. The store cannot
+     * be used after this.
+     */
+    @Override
+    public void close(){
+        writer.shutdown();
+        try{
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized(this){
+            if(closed)
+                return;
+            closed = true;
+            for(MappedByteBuffer m : segments.values())
+                m.force();
+            segments.clear();
+            segmentKeys.clear();
+            index.clear();
+        }
+        try{
+            lockChannel.close();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /** @return The hit and miss counts and the space used */
+    @Override
+    public synchronized String toString(){
+        return String.format(
+                "%d tiles on disk, %d/%d MB, %d hits, %d misses",
+                index.size(), getBytes() >> 20, maxBytes >> 20, hits, misses
+        );
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Walks the segments already in the directory to rebuild the index, or
+     * starts the first one.
+     */
+    private void load() throws IOException {
+        File[] files = dir.listFiles();
+        if(files != null){
+            for(File F : files){
+                String name = F.getName();
+                if(name.startsWith("seg-") && name.endsWith(".tiles")){
+                    try{
+                        int n = Integer.parseInt(name.substring(4, name.length() - 6));
+                        segments.put(n, map(n));
+                    } catch(NumberFormatException e){
+                        // Not one of ours
+                    }
+                }
+            }
+        }
+
+        // Walk each segment to rebuild the index
+        for(Map.Entry<Integer, MappedByteBuffer> s : segments.entrySet())
+            appendAt = scan(s.getKey(), s.getValue());
+
+        if(segments.isEmpty())
+            startSegment();
+        evict();
+    }
+
+    /**
+     * Appends a tile, from the writer thread. A full segment is forced to
+     * disk without holding the lock, so lookups go on in the meantime. Only
+     * this thread appends, so the newest segment does not change while it
+     * does.
+     *
+     * @param refresh Whether this is a tile read from the oldest segment,
+     *                which is only appended if it is still there. Otherwise
+     *                it is only appended if it is not stored at all.
+     */
+    private void write(ByteBuffer key, int[] rgb, boolean refresh){
+        MappedByteBuffer full = null;
+        synchronized(this){
+            if(closed)
+                return;
+            Location l = index.get(key);
+            if(refresh && (l == null || l.segment != segments.firstKey() || segments.size() == 1))
+                return;
+            if(!refresh && l != null)
+                return;
+            int size = sizeOf(key, rgb);
+            if(size <= SEGMENT_BYTES && appendAt + size > SEGMENT_BYTES)
+                full = segments.lastEntry().getValue();
+        }
+
+        // Seal the full segment before writing anywhere else
+        if(full != null)
+            full.force();
+
+        synchronized(this){
+            if(!closed)
+                append(key, rgb);
+        }
+    }
+
+    /** @return The index key for `k`, or null if it cannot be stored */
+    private ByteBuffer keyOf(TileCache.Key k){
+        if(closed)
+            return null;
+        byte[] b = k.toBytes();
+        return b == null ? null : ByteBuffer.wrap(b);
+    }
+
+    /** @return A view of the buffer starting at the record at `l` */
+    private ByteBuffer record(Location l){
+        ByteBuffer b = segments.get(l.segment).duplicate();
+        b.position(l.offset);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Appends a record to the newest segment, starting a new one if it does
+     * not fit. The full one must have already been forced to disk.
+     */
+    private void append(ByteBuffer key, int[] rgb){
+        int size = sizeOf(key, rgb);
+        if(size > SEGMENT_BYTES)
+            return;
+        if(appendAt + size > SEGMENT_BYTES){
+            try{
+                startSegment();
+            } catch(IOException e){
+                e.printStackTrace();
+                return;
+            }
+            evict();
+        }
+
+        int segment = segments.lastKey();
+        ByteBuffer b = segments.lastEntry().getValue().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        // Everything but the magic number first
+        b.position(appendAt + 4);
+        b.putInt(key.remaining());
+        b.putInt(rgb.length);
+        b.putInt(checksum(key, rgb));
+        b.put(key.duplicate());
+        b.asIntBuffer().put(rgb);
+        // Then mark it as written
+        b.putInt(appendAt, MAGIC);
+
+        Location old = index.put(key, new Location(segment, appendAt));
+        if(old == null || old.segment != segment)
+            segmentKeys.get(segment).add(key);
+        appendAt += size;
+    }
+
+    /**
+     * Reads the headers in a segment, adding each complete record to the
+     * index.
+     *
+     * @return Where the records stop
+     */
+    private int scan(int segment, MappedByteBuffer m){
+        ByteBuffer b = m.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        segmentKeys.put(segment, new ArrayList<>());
+        int at = 0;
+        while(at + HEADER_BYTES <= SEGMENT_BYTES && b.getInt(at) == MAGIC){
+            int keyLength = b.getInt(at + 4);
+            int pixels = b.getInt(at + 8);
+            long size = HEADER_BYTES + (long) keyLength + 4L*pixels;
+            if(keyLength < 0 || pixels < 0 || at + size > SEGMENT_BYTES)
+                // Garbage from a crash, so nothing after it is good either
+                break;
+
+            byte[] key = new byte[keyLength];
+            b.position(at + HEADER_BYTES);
+            b.get(key);
+            ByteBuffer wrapped = ByteBuffer.wrap(key);
+            index.put(wrapped, new Location(segment, at));
+            segmentKeys.get(segment).add(wrapped);
+            at += (int) size;
+        }
+        return at;
+    }
+
+    /** Makes a new, empty segment after the newest one */
+    private void startSegment() throws IOException {
+        int n = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        segments.put(n, map(n));
+        segmentKeys.put(n, new ArrayList<>());
+        appendAt = 0;
+    }
+
+    /** Deletes the oldest segments until the store fits */
+    private void evict(){
+        while(getBytes() > maxBytes && segments.size() > 1){
+            int n = segments.firstKey();
+            segments.remove(n);
+            for(ByteBuffer key : segmentKeys.remove(n)){
+                Location l = index.get(key);
+                if(l != null && l.segment == n)
+                    index.remove(key);
+            }
+            File F = segmentFile(n);
+            // Some systems will not delete a file that is still mapped
+            if(!F.delete())
+                F.deleteOnExit();
+        }
+    }
+
+    /** Maps segment `n`, making it if it is not there */
+    private MappedByteBuffer map(int n) throws IOException {
+        try(RandomAccessFile F = new RandomAccessFile(segmentFile(n), "rw");
+            FileChannel ch = F.getChannel()){
+            // Stays mapped after the channel is closed
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+    }
+
+    private static int sizeOf(ByteBuffer key, int[] rgb){
+        return HEADER_BYTES + key.remaining() + 4*rgb.length;
+    }
+
+    private File segmentFile(int n){
+        return new File(dir, "seg-" + n + ".tiles");
+    }
+
+    private static int checksum(ByteBuffer key, int[] rgb){
+        CRC32 crc = new CRC32();
+        crc.update(key.duplicate());
+        ByteBuffer b = ByteBuffer.allocate(4*rgb.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.asIntBuffer().put(rgb);
+        crc.update(b);
+        return (int) crc.getValue();
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /** Where a record starts */
+    private static class Location {
+
+        final int segment;
+        final int offset;
+
+        Location(int segment, int offset){
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+    }
+
+}
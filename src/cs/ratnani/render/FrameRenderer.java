@@ -0,0 +1,259 @@
+package cs.ratnani.render;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.Precision;
+import cs.ratnani.util.RenderEvents;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class plots a function for many values of its parameter `t`, and
+ * writes each one out as a numbered PNG, so the frames can be made into a
+ * video. For example, `z t ^` with `t` going from 1 to 4 shows `z^t` turning
+ * into `z^4`.
+ *
+ * The function is compiled once and shared by every frame; only `t` changes.
+ * The work is a pipeline:
+ * <ul>
+ *     <li>Several frames are computed at once on the renderer's threads.</li>
+ *     <li>Finished frames are handed, in order, to a queue that holds at most
+ *         `queueSize` of them.</li>
+ *     <li>A background thread takes frames off the queue and encodes them.</li>
+ * </ul>
+ * So computing and encoding overlap, and if encoding falls behind, computing
+ * waits for it instead of piling frames up in memory. Each frame written is
+ * reported to `RenderEvents` as an export.
+ *
+ * @see cs.ratnani.math.ComplexMath#plot(CompiledFunction, Complex, double, double, double, double, int, int)
+ * @see PngStreamWriter
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class FrameRenderer {
+
+    // Constants: --------------------------------------------------------------
+
+    // How many frames can wait to be encoded by default
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+
+    // Handed to the encoder after the last frame, to tell it to stop
+    private static final Frame END = new Frame(null, -1);
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final PlotRenderer renderer;
+    private final int queueSize;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @throws IllegalArgumentException If `queueSize` is not positive
+     * @param renderer What to plot with
+     * @param queueSize How many finished frames can wait to be encoded
+     */
+    public FrameRenderer(PlotRenderer renderer, int queueSize){
+        if(queueSize <= 0)
+            throw new IllegalArgumentException("Queue size must be positive");
+        this.renderer = renderer;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Makes a frame renderer with a queue of `DEFAULT_QUEUE_SIZE` frames.
+     *
+     * @param renderer What to plot with
+     */
+    public FrameRenderer(PlotRenderer renderer){
+        this(renderer, DEFAULT_QUEUE_SIZE);
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Plots `frames` frames, with `t` going evenly from `t0` to `t1`, and
+     * writes them to `prefix00000.png`, `prefix00001.png`, and so on. This
+     * blocks until every frame is written.
+     *
+     * @throws IOException If a frame could not be written. The frames before
+     *         it are kept.
+     * @throws CancellationException If the thread was interrupted
+     * @throws IllegalArgumentException If `frames` is not positive
+     * @param f The function to plot, which can use `t`
+     * @param v The bounds and size of every frame
+     * @param colors How to color the function's values
+     * @param t0 The value of `t` in the first frame
+     * @param t1 The value of `t` in the last frame
+     * @param frames How many frames to make
+     * @param prefix What to start each file name with, including folders
+     */
+    public void render(CompiledFunction f, Viewport v, ColorMap colors,
+                       Complex t0, Complex t1, int frames, String prefix) throws IOException {
+        if(frames <= 0)
+            throw new IllegalArgumentException("Frame count must be positive");
+        int h = v.getHeight();
+
+        BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(queueSize);
+        Encoder encoder = new Encoder(queue, f.getSource(), v.getWidth(), h, prefix);
+        Thread encoderThread = new Thread(encoder, "Frame Encoder");
+        encoderThread.setDaemon(true);
+        encoderThread.start();
+
+        // The frames being computed, oldest first. Keeping one per thread in
+        //  flight means the pool never runs dry between frames.
+        Deque<RenderJob> jobs = new ArrayDeque<>();
+        Deque<Future<int[]>> pending = new ArrayDeque<>();
+        int inFlight = renderer.getThreads() + 1;
+        int next = 0;
+        boolean ended = false;
+        try {
+            for(int i = 0; i < frames; i++){
+                while(next < frames && next < i + inFlight){
+                    RenderJob job = new RenderJob(f, v, colors, Precision.STRICT, tAt(t0, t1, next, frames), next);
+                    jobs.add(job);
+                    pending.add(renderer.submitRows(job, null, 0, h));
+                    next++;
+                }
+                int[] rgb = StreamingExporter.await(jobs.remove(), pending.remove());
+
+                // Stop early if the encoder gave up
+                encoder.check();
+                queue.put(new Frame(rgb, i));
+            }
+            queue.put(END);
+            ended = true;
+            encoderThread.join();
+            encoder.check();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } finally {
+            if(!ended){
+                for(RenderJob j : jobs)
+                    j.cancel();
+                for(Future<int[]> p : pending)
+                    p.cancel(false);
+                // The encoder might be waiting on an empty queue
+                encoderThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param prefix What each file name starts with
+     * @param i The number of the frame
+     * @return The file frame `i` is written to
+     */
+    public static File frameFile(String prefix, int i){
+        return new File(String.format("%s%05d.png", prefix, i));
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** @return The value of `t` in frame `i` out of `frames` */
+    private static Complex tAt(Complex t0, Complex t1, int i, int frames){
+        if(frames == 1)
+            return t0;
+        double s = (double) i / (frames - 1);
+        return new Complex(
+                t0.getRe() + (t1.getRe() - t0.getRe()) * s,
+                t0.getIm() + (t1.getIm() - t0.getIm()) * s
+        );
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /** A finished frame and its number */
+    private static final class Frame {
+
+        private final int[] rgb;
+        private final int index;
+
+        private Frame(int[] rgb, int index){
+            this.rgb = rgb;
+            this.index = index;
+        }
+
+    }
+
+    /**
+     * Takes frames off the queue and writes them out until it gets `END`. If
+     * writing one fails, it keeps the error for `check()` and stops.
+     */
+    private static final class Encoder implements Runnable {
+
+        private final BlockingQueue<Frame> queue;
+        private final String function;
+        private final int width;
+        private final int height;
+        private final String prefix;
+
+        // Set by the encoder thread, read by the one handing out frames
+        private volatile IOException error = null;
+
+        private Encoder(BlockingQueue<Frame> queue, String function, int width, int height, String prefix){
+            this.queue = queue;
+            this.function = function;
+            this.width = width;
+            this.height = height;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void run(){
+            try {
+                for(Frame fr = queue.take(); fr != END; fr = queue.take())
+                    write(fr);
+            } catch(IOException e){
+                error = e;
+                // Let whoever is waiting to put a frame in get on with it
+                queue.clear();
+            } catch(InterruptedException e){
+                // Cancelled
+            }
+        }
+
+        /** @throws IOException If a frame could not be written */
+        private void check() throws IOException {
+            IOException e = error;
+            if(e != null)
+                throw e;
+        }
+
+        private void write(Frame fr) throws IOException {
+            File file = frameFile(prefix, fr.index);
+            // Only this one thread writes
+            RenderEvents.Export event = RenderEvents.Export.start(function, file.getPath(), (long) width * height, 1);
+            boolean done = false;
+            try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)){
+                PngStreamWriter png = new PngStreamWriter(out, width, height);
+                png.writeRows(fr.rgb, 0, height);
+                png.finish();
+                done = true;
+            } finally {
+                if(!done)
+                    file.delete();
+            }
+            event.finish(file.length());
+        }
+
+    }
+
+}
@@ -0,0 +1,288 @@
+package cs.ratnani.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+ * This class writes an RGB PNG a few rows at a time, so the whole image never
+ * has to be in memory. Each row is filtered as soon as it comes in and sent
+ * through the compressor, which hands out `IDAT` chunks of at most
+ * `CHUNK_BYTES`. All that is kept between calls is the previous row (which
+ * the filters need) and the compressor's own buffers.
+ *
+ * Each row is filtered with whichever of the five PNG filters gives the
+ * smallest sum of absolute differences. This is the usual rule of thumb, and
+ * what libpng does by default (though here only some of the pixels are used
+ * to decide).
+ *
+ * @see StreamingExporter
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public final class PngStreamWriter {
+
+    // Constants: --------------------------------------------------------------
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+    // The most data in one `IDAT` chunk
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    // Bytes per pixel, for RGB with 8 bits each
+    private static final int BPP = 3;
+
+    // Only every this many pixels are used to pick a filter for each row
+    private static final int SAMPLE_STEP = 4;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final DeflaterOutputStream idat;
+    private final Deflater deflater;
+
+    // The raw bytes of the last row and this one, and the filtered row with
+    //  its filter type in front
+    private byte[] prev;
+    private byte[] cur;
+    private final byte[] filtered;
+
+    private int rowsWritten = 0;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * Writes the PNG header right away.
+     *
+     * @throws IOException If `out` could not be written to
+     * @throws IllegalArgumentException If the size is not positive
+     * @param out Where to write the image; it is not closed at the end
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     */
+    public PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        if(width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Size must be positive");
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        prev = new byte[width * BPP];
+        cur = new byte[width * BPP];
+        filtered = new byte[1 + width * BPP];
+
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;  // Bit depth
+        ihdr[9] = 2;  // Color type: RGB
+        // Compression, filter method, and interlacing are all 0
+        writeChunk("IHDR", ihdr, ihdr.length);
+
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        idat = new DeflaterOutputStream(new IdatStream(), deflater, CHUNK_BYTES);
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return How many rows have been written so far */
+    public int getRowsWritten(){ return rowsWritten; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Writes the next rows of the image.
+     *
+     * @throws IOException If the stream could not be written to
+     * @throws IllegalStateException If that would be more rows than the image
+     *         has
+     * @param rgb The colors, as from `ColorMap`, row after row. Alpha is
+     *            ignored.
+     * @param off Where the first row starts in `rgb`
+     * @param rows How many rows to write
+     */
+    public void writeRows(int[] rgb, int off, int rows) throws IOException {
+        if(rowsWritten + rows > height)
+            throw new IllegalStateException("Too many rows");
+        for(int r = 0; r < rows; r++){
+            int base = off + r * width;
+            for(int c = 0; c < width; c++){
+                int p = rgb[base + c];
+                cur[c*BPP] = (byte) (p >> 16);
+                cur[c*BPP + 1] = (byte) (p >> 8);
+                cur[c*BPP + 2] = (byte) p;
+            }
+            filterRow();
+            idat.write(filtered);
+
+            byte[] t = prev;
+            prev = cur;
+            cur = t;
+            rowsWritten++;
+        }
+    }
+
+    /**
+     * Finishes the image. The stream is flushed but not closed.
+     *
+     * @throws IOException If the stream could not be written to
+     * @throws IllegalStateException If not every row was written
+     */
+    public void finish() throws IOException {
+        if(rowsWritten != height)
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+        // Flushes the last `IDAT` too
+        idat.finish();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Filters `cur` into `filtered`, using `prev` as the row above. On the
+     * first row, `prev` is all zeros, which is what the filters expect there.
+     * To save time, the filters are only scored on every `SAMPLE_STEP`-th
+     * pixel, which picks the same one almost every time.
+     */
+    private void filterRow(){
+        int n = cur.length;
+        // The sum of the filtered bytes, taken as signed, for each filter.
+        //  Start at the second pixel, so there is always one to the left.
+        long s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        for(int p = BPP; p < n; p += BPP * SAMPLE_STEP){
+            for(int i = p; i < p + BPP; i++){
+                int x = cur[i] & 0xFF;
+                int a = cur[i - BPP] & 0xFF;
+                int b = prev[i] & 0xFF;
+                int c = prev[i - BPP] & 0xFF;
+                s0 += Math.abs((byte) x);
+                s1 += Math.abs((byte) (x - a));
+                s2 += Math.abs((byte) (x - b));
+                s3 += Math.abs((byte) (x - ((a + b) >>> 1)));
+                s4 += Math.abs((byte) (x - paeth(a, b, c)));
+            }
+        }
+        int type = 0;
+        long best = s0;
+        if(s1 < best){ best = s1; type = 1; }
+        if(s2 < best){ best = s2; type = 2; }
+        if(s3 < best){ best = s3; type = 3; }
+        if(s4 < best){ type = 4; }
+
+        // The first pixel has nothing to its left, so `a` and `c` are 0
+        filtered[0] = (byte) type;
+        for(int i = 0; i < BPP && i < n; i++){
+            int x = cur[i] & 0xFF;
+            int b = prev[i] & 0xFF;
+            switch(type){
+                case 0: case 1: filtered[1 + i] = (byte) x; break;
+                case 3: filtered[1 + i] = (byte) (x - (b >>> 1)); break;
+                default: filtered[1 + i] = (byte) (x - b);
+            }
+        }
+        // One loop per filter, to keep the switch out of them
+        switch(type){
+            case 0:
+                System.arraycopy(cur, BPP, filtered, 1 + BPP, n - BPP);
+                break;
+            case 1:
+                for(int i = BPP; i < n; i++)
+                    filtered[1 + i] = (byte) (cur[i] - cur[i - BPP]);
+                break;
+            case 2:
+                for(int i = BPP; i < n; i++)
+                    filtered[1 + i] = (byte) (cur[i] - prev[i]);
+                break;
+            case 3:
+                for(int i = BPP; i < n; i++)
+                    filtered[1 + i] = (byte) (cur[i] - (((cur[i - BPP] & 0xFF) + (prev[i] & 0xFF)) >>> 1));
+                break;
+            default:
+                for(int i = BPP; i < n; i++)
+                    filtered[1 + i] = (byte) (cur[i] - paeth(cur[i - BPP] & 0xFF, prev[i] & 0xFF, prev[i - BPP] & 0xFF));
+        }
+    }
+
+    /**
+     * The Paeth predictor from the PNG spec: whichever of `a`, `b`, and `c`
+     * is closest to `a + b - c`, in that order if there is a tie. It is done
+     * with masks instead of branches, since which one wins changes from byte
+     * to byte and the branches would mostly be guessed wrong.
+     */
+    private static int paeth(int a, int b, int c){
+        int pa = Math.abs(b - c);
+        int pb = Math.abs(a - c);
+        int pc = Math.abs(a + b - 2*c);
+        // All ones if `a` loses, and if `c` beats `b`
+        int notA = ((pb - pa) | (pc - pa)) >> 31;
+        int useC = (pc - pb) >> 31;
+        int bc = b ^ ((b ^ c) & useC);
+        return a ^ ((a ^ bc) & notA);
+    }
+
+    private void writeChunk(String type, byte[] data, int len) throws IOException {
+        byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] head = new byte[8];
+        putInt(head, 0, len);
+        System.arraycopy(t, 0, head, 4, 4);
+        out.write(head);
+        out.write(data, 0, len);
+
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, 0, len);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] b, int off, int v){
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * Where the compressor writes. Everything it writes is wrapped up as one
+     * `IDAT` chunk.
+     */
+    private class IdatStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return;
+            if(off == 0){
+                writeChunk("IDAT", b, len);
+            } else {
+                byte[] copy = new byte[len];
+                System.arraycopy(b, off, copy, 0, len);
+                writeChunk("IDAT", copy, len);
+            }
+        }
+
+    }
+
+}
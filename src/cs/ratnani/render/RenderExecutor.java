@@ -0,0 +1,255 @@
+package cs.ratnani.render;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.Precision;
+import cs.ratnani.util.RenderEvents;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+
+/**
+ * This class runs plots in the background, one at a time, for something that
+ * only ever cares about the latest one (ex. the plot area on screen).
+ * Submitting a new plot cancels the one before it, so rapid changes do not
+ * pile up work. Each plot gets a new generation number, and results are only
+ * passed on if they come from the latest generation, so an old plot that was
+ * still finishing can never overwrite a newer one.
+ *
+ * All plots run on one reusable background thread, which hands the actual
+ * work to a `PlotRenderer`. If a plot is of the same function as the last
+ * finished one and the bounds were only shifted by a whole number of pixels,
+ * only the strips that moved into view are computed.
+ *
+ * If the executor has a `TileCache`, every finished plot is added to it, and
+ * a plot whose tiles are mostly in the cache is put together from them
+ * instead of being computed again.
+ *
+ * If the system property `cs.ratnani.adaptiveTolerance` is set, plots that
+ * are not from the cache or panned are made with
+ * `PlotRenderer.renderAdaptive()` and that tolerance instead of
+ * coarse-to-fine. Those are only close to exact, so they are not added to the
+ * cache.
+ *
+ * Every plot is reported to `RenderEvents` as it finishes, is cancelled, or
+ * fails, along with which way it was plotted. A plot that fails (ex. the
+ * function threw) is passed to `onError` instead, under the same rule as the
+ * images: only if it is still the latest one.
+ *
+ * @see RenderJob
+ * @see PlotRenderer#renderPanned(RenderJob, BufferedImage, Viewport)
+ * @see PlotRenderer#renderCached(RenderJob, TileCache)
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class RenderExecutor {
+
+    // Constants: --------------------------------------------------------------
+
+    // The tolerance for `PlotRenderer.renderAdaptive()`, or less than 0 not
+    //  to use it
+    private static final int ADAPTIVE_TOLERANCE = Integer.getInteger("cs.ratnani.adaptiveTolerance", -1);
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final PlotRenderer renderer;
+    private final ExecutorService executor;
+    // May be null
+    private final TileCache cache;
+
+    // The latest job submitted, and its generation number. Guarded by `this`.
+    private RenderJob current = null;
+    private long generation = 0;
+
+    // The last job that finished, and its image, for panning. Guarded by
+    //  `this`.
+    private RenderJob finished = null;
+    private BufferedImage finishedImage = null;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param renderer What to render with
+     */
+    public RenderExecutor(PlotRenderer renderer){
+        this(renderer, null);
+    }
+
+    /**
+     * @param renderer What to render with
+     * @param cache Where to keep finished tiles, or null not to keep them
+     */
+    public RenderExecutor(PlotRenderer renderer, TileCache cache){
+        this.renderer = renderer;
+        this.cache = cache;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Background Plot");
+            // Do not keep the program open
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Cancels the plot in progress, if there is one, and plots a function
+     * coarse-to-fine (or from the cache or by panning, see above) in the
+     * background. `onPass`
+     * is called from the background thread with the image after each pass,
+     * but only while this is still the latest plot submitted.
+     *
+     * @param f The function to plot
+     * @param v The bounds and size of the plot
+     * @param colors How to color the function's values
+     * @param onPass Called with the image after each pass
+     * @return The new job, which may be cancelled
+     * @see PlotRenderer#renderProgressive(RenderJob, Consumer)
+     */
+    public RenderJob submit(CompiledFunction f, Viewport v, ColorMap colors,
+                            Consumer<BufferedImage> onPass){
+        return submit(f, v, colors, colors, Precision.STRICT, onPass);
+    }
+
+    /**
+     * Same as above, but coloring and computing the rough passes with the
+     * ones given. The final image is still colored with `colors` and
+     * computed with `Precision.STRICT`, so it is the same no matter what.
+     * Errors are printed.
+     *
+     * @param f The function to plot
+     * @param v The bounds and size of the plot
+     * @param colors How to color the final image
+     * @param coarseColors How to color the passes before the last
+     * @param coarse How accurately to compute the passes before the last
+     * @param onPass Called with the image after each pass
+     * @return The new job, which may be cancelled
+     * @see PlotRenderer#renderProgressive(RenderJob, ColorMap, Precision, Consumer)
+     */
+    public RenderJob submit(CompiledFunction f, Viewport v, ColorMap colors, ColorMap coarseColors,
+                            Precision coarse, Consumer<BufferedImage> onPass){
+        return submit(f, v, colors, coarseColors, coarse, onPass, Throwable::printStackTrace);
+    }
+
+    /**
+     * Same as above, but calling `onError` from the background thread if the
+     * plot fails, again only while this is still the latest plot submitted.
+     *
+     * @param f The function to plot
+     * @param v The bounds and size of the plot
+     * @param colors How to color the final image
+     * @param coarseColors How to color the passes before the last
+     * @param coarse How accurately to compute the passes before the last
+     * @param onPass Called with the image after each pass
+     * @param onError Called with what went wrong if the plot fails
+     * @return The new job, which may be cancelled
+     */
+    public synchronized RenderJob submit(CompiledFunction f, Viewport v, ColorMap colors,
+                                         ColorMap coarseColors, Precision coarse,
+                                         Consumer<BufferedImage> onPass,
+                                         Consumer<RuntimeException> onError){
+        cancel();
+
+        generation++;
+        RenderJob job = new RenderJob(f, v, colors, Precision.STRICT, generation);
+        current = job;
+
+        // If the last plot was of the same thing, we may only have to plot
+        //  the strips that moved into view
+        RenderJob old = finished;
+        BufferedImage oldImage = finishedImage;
+        boolean canPan = old != null
+                && old.getFunction().equals(f)
+                && old.getColors() == colors
+                && v.shiftFrom(old.getViewport()) != null;
+
+        executor.execute(() -> {
+            boolean cached = cache != null
+                    && 2 * PlotRenderer.countCached(job, cache) >= PlotRenderer.countTiles(job);
+            boolean adaptive = !cached && !canPan && ADAPTIVE_TOLERANCE >= 0;
+            RenderEvents.Render event = RenderEvents.Render.start(
+                    cached ? "cached" : canPan ? "panned" : adaptive ? "adaptive" : "progressive",
+                    f.getSource(),
+                    (long) v.getWidth() * v.getHeight(),
+                    renderer.getThreads()
+            );
+            BufferedImage img;
+            try{
+                if(cached){
+                    img = renderer.renderCached(job, cache);
+                    deliver(job, img, onPass);
+                } else if(canPan){
+                    img = renderer.renderPanned(job, oldImage, old.getViewport());
+                    deliver(job, img, onPass);
+                } else if(adaptive){
+                    img = renderer.renderAdaptive(job, ADAPTIVE_TOLERANCE);
+                    deliver(job, img, onPass);
+                } else {
+                    img = renderer.renderProgressive(job, coarseColors, coarse, i -> deliver(job, i, onPass));
+                }
+            } catch(CancellationException e){
+                // A newer plot replaced this one, nothing else to do
+                event.cancel();
+                return;
+            } catch(RuntimeException e){
+                // Otherwise nothing would ever replace whatever is on screen
+                //  (ex. "Loading...")
+                event.fail(e);
+                deliver(job, e, onError);
+                return;
+            }
+            finish(job, img);
+            event.finish();
+            if(cache != null && !adaptive)
+                renderer.storeTiles(job, img, cache);
+        });
+        return job;
+    }
+
+    /**
+     * Cancels the plot in progress, if there is one.
+     */
+    public synchronized void cancel(){
+        if(current != null)
+            current.cancel();
+    }
+
+    /**
+     * @param job A job from this executor
+     * @return Whether `job` is the latest one submitted
+     */
+    public synchronized boolean isCurrent(RenderJob job){
+        return job.getGeneration() == generation;
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Passes on an image (or error), but only if it came from the latest
+     * job. This holds the lock while calling `to`, so once `submit()`
+     * returns, nothing from an older job can get through.
+     */
+    private synchronized <T> void deliver(RenderJob job, T result, Consumer<T> to){
+        if(job.getGeneration() == generation && !job.isCancelled())
+            to.accept(result);
+    }
+
+    /**
+     * Remembers a job's final image so the next job can pan from it.
+     */
+    private synchronized void finish(RenderJob job, BufferedImage img){
+        if(finished == null || job.getGeneration() > finished.getGeneration()){
+            finished = job;
+            finishedImage = img;
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package cs.ratnani.render;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.Precision;
+
+
+/**
+ * This class represents one request to plot a function: what to plot, where,
+ * and how to color it. It can be cancelled from any thread, and the renderer
+ * checks for that between bands of rows, so a cancelled job stops soon after
+ * without leaving work running in the background.
+ *
+ * Each job also has a generation number. Jobs handed out by a
+ * `RenderExecutor` get increasing numbers, so results from an old job can be
+ * told apart from the current one and thrown away.
+ *
+ * Jobs are computed with `Precision.STRICT` unless asked otherwise. Anything
+ * that only goes on screen can use `Precision.FAST` to get there sooner. The
+ * function's parameter `t` is 0 unless given.
+ *
+ * @see PlotRenderer#render(RenderJob)
+ * @see RenderExecutor
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class RenderJob {
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final CompiledFunction function;
+    private final Viewport viewport;
+    private final ColorMap colors;
+    private final Precision precision;
+    private final Complex t;
+    private final long generation;
+
+    // Set from other threads, read by the render threads
+    private volatile boolean cancelled = false;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param function The function to plot
+     * @param viewport The bounds and size of the plot
+     * @param colors How to color the function's values
+     * @param precision How accurately to compute the function
+     * @param t The value of the function's parameter `t`
+     * @param generation A number to tell this job apart from others
+     */
+    public RenderJob(CompiledFunction function, Viewport viewport, ColorMap colors,
+                     Precision precision, Complex t, long generation){
+        this.function = function;
+        this.viewport = viewport;
+        this.colors = colors;
+        this.precision = precision;
+        this.t = t;
+        this.generation = generation;
+    }
+
+    /**
+     * Makes a job with `t` = 0.
+     *
+     * @param function The function to plot
+     * @param viewport The bounds and size of the plot
+     * @param colors How to color the function's values
+     * @param precision How accurately to compute the function
+     * @param generation A number to tell this job apart from others
+     */
+    public RenderJob(CompiledFunction function, Viewport viewport, ColorMap colors,
+                     Precision precision, long generation){
+        this(function, viewport, colors, precision, new Complex(0, 0), generation);
+    }
+
+    /**
+     * Makes a job computed with `Precision.STRICT`.
+     *
+     * @param function The function to plot
+     * @param viewport The bounds and size of the plot
+     * @param colors How to color the function's values
+     * @param generation A number to tell this job apart from others
+     */
+    public RenderJob(CompiledFunction function, Viewport viewport, ColorMap colors, long generation){
+        this(function, viewport, colors, Precision.STRICT, generation);
+    }
+
+    /**
+     * Makes a job that is not part of any sequence, with generation 0.
+     *
+     * @param function The function to plot
+     * @param viewport The bounds and size of the plot
+     * @param colors How to color the function's values
+     */
+    public RenderJob(CompiledFunction function, Viewport viewport, ColorMap colors){
+        this(function, viewport, colors, 0);
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return The function to plot */
+    public CompiledFunction getFunction(){ return function; }
+
+    /** @return The bounds and size of the plot */
+    public Viewport getViewport(){ return viewport; }
+
+    /** @return How to color the function's values */
+    public ColorMap getColors(){ return colors; }
+
+    /** @return How accurately to compute the function */
+    public Precision getPrecision(){ return precision; }
+
+    /** @return The value of the function's parameter `t` */
+    public Complex getT(){ return t; }
+
+    /** @return The number telling this job apart from others */
+    public long getGeneration(){ return generation; }
+
+    /** @return Whether `cancel()` has been called */
+    public boolean isCancelled(){ return cancelled; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Asks for this job to stop. Work already started on a band of rows is
+     * finished, but nothing new is started.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+}
@@ -0,0 +1,302 @@
+package cs.ratnani.render;
+
+import cs.ratnani.util.RenderEvents;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class plots very large images in a way that can pick up where it left
+ * off if the program dies. The pixels go into a raw RGBA file, which is
+ * memory-mapped a band at a time, and the file starts with a header saying
+ * which tiles are done. A later run on the same job and file skips every tile
+ * the header says is done. Once every tile is done, the raw file is turned
+ * into a PNG.
+ *
+ * The raw file is laid out as:
+ * <pre>
+ *     int      MAGIC
+ *     int      VERSION
+ *     int      width, height, TileCache.TILE_SIZE
+ *     int      key length
+ *     byte[]   key, from `TileCache.Key.toBytes()` for the whole image
+ *     byte[]   completion bitmap, one bit per tile, row after row
+ *     ...      padding up to a multiple of `ALIGN`
+ *     byte[]   pixels: R, G, B, A for each pixel, row after row
+ * </pre>
+ * If the header does not match the job (ex. the function changed), the file
+ * is started over.
+ *
+ * A band's tiles are only marked as done after its pixels have been forced to
+ * disk, and the bitmap is forced right after. So at worst, a crash loses the
+ * band that was being worked on, and never marks a tile done that is not.
+ *
+ * @see StreamingExporter
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class ResumableExporter {
+
+    // Constants: --------------------------------------------------------------
+
+    private static final int MAGIC = 0x52474241;  // "RGBA"
+    private static final int VERSION = 1;
+
+    // Where the pixels start is rounded up to a multiple of this, a page
+    private static final int ALIGN = 4096;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final PlotRenderer renderer;
+    private final int bandPixels;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param renderer What to plot with
+     * @param bandPixels About how many pixels to put in a band, which is also
+     *                   how much work a crash can lose
+     */
+    public ResumableExporter(PlotRenderer renderer, int bandPixels){
+        this.renderer = renderer;
+        this.bandPixels = bandPixels;
+    }
+
+    /**
+     * Makes an exporter with bands of about
+     * `StreamingExporter.DEFAULT_BAND_PIXELS` pixels.
+     *
+     * @param renderer What to plot with
+     */
+    public ResumableExporter(PlotRenderer renderer){
+        this(renderer, StreamingExporter.DEFAULT_BAND_PIXELS);
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Plots a job to a PNG file, by way of a raw file next to it with
+     * ".raw" on the end. If a run before this one was stopped partway, its
+     * work is picked up from the raw file. The raw file is deleted once the
+     * PNG is written. The export is reported to `RenderEvents`.
+     *
+     * @throws IOException If either file could not be written
+     * @throws CancellationException If the job was cancelled. The raw file is
+     *         kept, so the next run can resume.
+     * @param job What to plot
+     * @param cache Where to look for tiles and put new ones, or null
+     * @param png Where to write the PNG
+     */
+    public void export(RenderJob job, TileCache cache, File png) throws IOException {
+        File raw = new File(png.getPath() + ".raw");
+        RenderEvents.Export event = StreamingExporter.startExport(job, png, renderer);
+        try {
+            render(job, cache, raw);
+        } catch(CancellationException e){
+            event.cancel();
+            throw e;
+        }
+
+        boolean done = false;
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(png), 1 << 16)){
+            toPng(raw, out);
+            done = true;
+        } finally {
+            if(!done)
+                png.delete();
+        }
+        raw.delete();
+        event.finish(png.length());
+    }
+
+    /**
+     * Plots a job into a raw file, skipping the tiles that are already done
+     * there.
+     *
+     * @throws IOException If the file could not be read or written. The job
+     *         is then cancelled, and every band finished before that is
+     *         kept.
+     * @throws CancellationException If the job was cancelled. Every band
+     *         finished before that is kept.
+     * @param job What to plot
+     * @param cache Where to look for tiles and put new ones, or null
+     * @param raw The file to plot into, which need not exist yet
+     * @return How many tiles were already done
+     */
+    public int render(RenderJob job, TileCache cache, File raw) throws IOException {
+        Viewport v = job.getViewport();
+        int w = v.getWidth();
+        int h = v.getHeight();
+        int T = TileCache.TILE_SIZE;
+        int across = (w + T - 1) / T;
+        int tiles = across * ((h + T - 1) / T);
+        byte[] key = TileCache.keyFor(job, 0, 0, w, h).toBytes();
+        // Without a key, there is no telling if the file is for this job
+        if(key == null)
+            key = new byte[0];
+
+        int bitmapAt = 6*4 + key.length;
+        long dataAt = roundUp(bitmapAt + (tiles + 7) / 8);
+        long length = dataAt + 4L * w * h;
+
+        try(RandomAccessFile f = new RandomAccessFile(raw, "rw");
+            FileChannel ch = f.getChannel()){
+            MappedByteBuffer head = null;
+            if(ch.size() == length){
+                head = ch.map(FileChannel.MapMode.READ_WRITE, 0, dataAt);
+                if(!matches(head, w, h, key) || key.length == 0)
+                    head = null;
+            }
+            if(head == null){
+                // Start over
+                f.setLength(0);
+                f.setLength(length);
+                head = ch.map(FileChannel.MapMode.READ_WRITE, 0, dataAt);
+                head.putInt(MAGIC).putInt(VERSION).putInt(w).putInt(h).putInt(T);
+                head.putInt(key.length).put(key);
+                head.force();
+            }
+
+            // Find the bands that are not done yet
+            int band = StreamingExporter.bandRows(w, bandPixels);
+            int skipped = 0;
+            List<Integer> todo = new ArrayList<>();
+            for(int r0 = 0; r0 < h; r0 += band){
+                // Bands start on a tile row, so they have whole tile rows
+                int t0 = r0 / T * across;
+                int t1 = (Math.min(h, r0 + band) + T - 1) / T * across;
+                int done = 0;
+                for(int t = t0; t < t1; t++)
+                    if(isDone(head, bitmapAt, t))
+                        done++;
+                if(done == t1 - t0)
+                    skipped += done;
+                else
+                    todo.add(r0);
+            }
+            if(todo.isEmpty())
+                return skipped;
+
+            Future<int[]> next = renderer.submitRows(job, cache, todo.get(0), Math.min(band, h - todo.get(0)));
+            try {
+                for(int i = 0; i < todo.size(); i++){
+                    int r0 = todo.get(i);
+                    int rows = Math.min(band, h - r0);
+                    int[] rgb = StreamingExporter.await(job, next);
+                    // Start on the next band before writing this one
+                    next = i + 1 < todo.size()
+                            ? renderer.submitRows(job, cache, todo.get(i+1), Math.min(band, h - todo.get(i+1)))
+                            : null;
+
+                    // Write the pixels and make sure they are on disk
+                    MappedByteBuffer px = ch.map(FileChannel.MapMode.READ_WRITE, dataAt + 4L * w * r0, 4L * w * rows);
+                    IntBuffer out = px.asIntBuffer();
+                    for(int k = 0; k < rgb.length; k++)
+                        out.put(k, rgb[k] << 8 | 0xFF);
+                    px.force();
+
+                    // Only then mark its tiles as done
+                    for(int t = r0 / T * across; t < (r0 + rows + T - 1) / T * across; t++)
+                        setDone(head, bitmapAt, t);
+                    head.force();
+                }
+            } finally {
+                // Only if something went wrong. See `StreamingExporter`.
+                if(next != null){
+                    job.cancel();
+                    next.cancel(false);
+                }
+            }
+            return skipped;
+        }
+    }
+
+    /**
+     * Turns a finished raw file into a PNG, a band at a time.
+     *
+     * @throws IOException If the raw file is not finished, or either file
+     *         could not be read or written
+     * @param raw The raw file, from `render()`
+     * @param out Where to write the PNG; it is flushed but not closed
+     */
+    public void toPng(File raw, OutputStream out) throws IOException {
+        try(RandomAccessFile f = new RandomAccessFile(raw, "r");
+            FileChannel ch = f.getChannel()){
+            ByteBuffer fixed = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 6*4));
+            if(fixed.limit() < 6*4 || fixed.getInt(0) != MAGIC || fixed.getInt(4) != VERSION)
+                throw new IOException(raw + " is not a raw plot");
+            int w = fixed.getInt(8);
+            int h = fixed.getInt(12);
+            int T = fixed.getInt(16);
+            int bitmapAt = 6*4 + fixed.getInt(20);
+            int tiles = ((w + T - 1) / T) * ((h + T - 1) / T);
+            long dataAt = roundUp(bitmapAt + (tiles + 7) / 8);
+
+            ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, dataAt);
+            for(int t = 0; t < tiles; t++)
+                if(!isDone(head, bitmapAt, t))
+                    throw new IOException(raw + " is not finished");
+
+            PngStreamWriter png = new PngStreamWriter(out, w, h);
+            int band = StreamingExporter.bandRows(w, bandPixels);
+            int[] rgb = new int[w * Math.min(band, h)];
+            for(int r0 = 0; r0 < h; r0 += band){
+                int rows = Math.min(band, h - r0);
+                IntBuffer px = ch.map(FileChannel.MapMode.READ_ONLY, dataAt + 4L * w * r0, 4L * w * rows).asIntBuffer();
+                px.get(rgb, 0, w * rows);
+                // RGBA to the `ColorMap` format
+                for(int k = 0; k < w * rows; k++)
+                    rgb[k] >>>= 8;
+                png.writeRows(rgb, 0, rows);
+            }
+            png.finish();
+        }
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** @return Whether a raw file's header is for an image like this */
+    private static boolean matches(ByteBuffer head, int w, int h, byte[] key){
+        if(head.getInt(0) != MAGIC || head.getInt(4) != VERSION
+                || head.getInt(8) != w || head.getInt(12) != h
+                || head.getInt(16) != TileCache.TILE_SIZE || head.getInt(20) != key.length)
+            return false;
+        byte[] k = new byte[key.length];
+        ByteBuffer b = head.duplicate();
+        b.position(24);
+        b.get(k);
+        return Arrays.equals(k, key);
+    }
+
+    private static boolean isDone(ByteBuffer head, int bitmapAt, int tile){
+        return (head.get(bitmapAt + tile / 8) & (1 << (tile % 8))) != 0;
+    }
+
+    private static void setDone(ByteBuffer head, int bitmapAt, int tile){
+        int i = bitmapAt + tile / 8;
+        head.put(i, (byte) (head.get(i) | (1 << (tile % 8))));
+    }
+
+    private static long roundUp(long n){
+        return (n + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+}
@@ -0,0 +1,186 @@
+package cs.ratnani.render;
+
+import cs.ratnani.util.RenderEvents;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class plots a function straight to a PNG file, a band of rows at a
+ * time, so images far bigger than memory (ex. 32768x32768 posters) can be
+ * made. While one band is being compressed and written out, the next one is
+ * computed on the renderer's threads. At most two bands are in memory at once,
+ * so memory use depends on the width of the image and the band size, but not
+ * on its height.
+ *
+ * Bands are always a whole number of tile rows high, so a `TileCache` can be
+ * used to reuse tiles from earlier plots and to save the new ones.
+ *
+ * @see PngStreamWriter
+ * @see PlotRenderer#submitRows(RenderJob, TileCache, int, int)
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class StreamingExporter {
+
+    // Constants: --------------------------------------------------------------
+
+    // About how many pixels are in a band by default. That is 16 MB of colors.
+    public static final int DEFAULT_BAND_PIXELS = 1 << 22;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final PlotRenderer renderer;
+    private final int bandPixels;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param renderer What to plot with
+     * @param bandPixels About how many pixels to put in a band. Bands are
+     *                   never less than one row of tiles, however wide.
+     */
+    public StreamingExporter(PlotRenderer renderer, int bandPixels){
+        this.renderer = renderer;
+        this.bandPixels = bandPixels;
+    }
+
+    /**
+     * Makes an exporter with bands of about `DEFAULT_BAND_PIXELS` pixels.
+     *
+     * @param renderer What to plot with
+     */
+    public StreamingExporter(PlotRenderer renderer){
+        this(renderer, DEFAULT_BAND_PIXELS);
+    }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Plots a job to a PNG file. If anything goes wrong, the partial file is
+     * deleted. The export is reported to `RenderEvents`.
+     *
+     * @throws IOException If the file could not be written
+     * @throws CancellationException If the job was cancelled
+     * @param job What to plot
+     * @param cache Where to look for tiles and put new ones, or null
+     * @param file Where to write the PNG
+     */
+    public void export(RenderJob job, TileCache cache, File file) throws IOException {
+        RenderEvents.Export event = startExport(job, file, renderer);
+        boolean done = false;
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)){
+            export(job, cache, out);
+            done = true;
+        } catch(CancellationException e){
+            event.cancel();
+            throw e;
+        } finally {
+            if(!done)
+                file.delete();
+        }
+        event.finish(file.length());
+    }
+
+    /**
+     * Plots a job as a PNG to a stream, which is flushed but not closed. If
+     * the stream cannot be written to, the job is cancelled so the band being
+     * computed stops too.
+     *
+     * @throws IOException If the stream could not be written to
+     * @throws CancellationException If the job was cancelled
+     * @param job What to plot
+     * @param cache Where to look for tiles and put new ones, or null
+     * @param out Where to write the PNG
+     */
+    public void export(RenderJob job, TileCache cache, OutputStream out) throws IOException {
+        Viewport v = job.getViewport();
+        int w = v.getWidth();
+        int h = v.getHeight();
+        int band = bandRows(w, bandPixels);
+
+        PngStreamWriter png = new PngStreamWriter(out, w, h);
+        Future<int[]> next = renderer.submitRows(job, cache, 0, Math.min(band, h));
+        try {
+            for(int r0 = 0; r0 < h; r0 += band){
+                int[] rgb = await(job, next);
+                // Start on the next band before writing this one
+                int r1 = r0 + band;
+                next = r1 < h ? renderer.submitRows(job, cache, r1, Math.min(band, h - r1)) : null;
+                png.writeRows(rgb, 0, Math.min(band, h - r0));
+            }
+        } finally {
+            // Only if something went wrong. Cancelling the `Future` alone
+            //  does not stop a task that already started, but the job's
+            //  tasks check `isCancelled()` as they go.
+            if(next != null){
+                job.cancel();
+                next.cancel(false);
+            }
+        }
+        png.finish();
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** @return An event for exporting a job to a file, already started */
+    static RenderEvents.Export startExport(RenderJob job, File file, PlotRenderer renderer){
+        Viewport v = job.getViewport();
+        return RenderEvents.Export.start(
+                job.getFunction().getSource(),
+                file.getPath(),
+                (long) v.getWidth() * v.getHeight(),
+                renderer.getThreads()
+        );
+    }
+
+    /**
+     * @param width The width of the image
+     * @param bandPixels About how many pixels to put in a band
+     * @return How many rows go in each band, a whole number of tile rows
+     */
+    static int bandRows(int width, int bandPixels){
+        int T = TileCache.TILE_SIZE;
+        long tileRows = bandPixels / ((long) width * T);
+        return (int) Math.max(1, Math.min(tileRows, Integer.MAX_VALUE / T)) * T;
+    }
+
+    /**
+     * Waits for a band to be done.
+     *
+     * @throws CancellationException If the job was cancelled, or the thread
+     *         was interrupted while waiting
+     * @return The colors in the band
+     */
+    static int[] await(RenderJob job, Future<int[]> band){
+        try {
+            int[] ret = band.get();
+            if(job.isCancelled())
+                throw new CancellationException();
+            return ret;
+        } catch(InterruptedException e){
+            job.cancel();
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } catch(ExecutionException e){
+            Throwable c = e.getCause();
+            if(c instanceof RuntimeException)
+                throw (RuntimeException) c;
+            if(c instanceof Error)
+                throw (Error) c;
+            throw new IllegalStateException(c);
+        }
+    }
+
+}
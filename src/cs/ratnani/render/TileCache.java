@@ -0,0 +1,405 @@
+package cs.ratnani.render;
+
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.math.Complex;
+import cs.ratnani.math.Precision;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * This class keeps recently plotted tiles in memory so that going back to a
+ * view (or a window size) we have already seen does not mean plotting it all
+ * over again. Plots are cut into `TILE_SIZE`-by-`TILE_SIZE` tiles, and each
+ * tile is stored under a key made of:
+ * <ul>
+ *     <li>The function, compared by what it does rather than how it was
+ *         written (see `CompiledFunction.equals()`)</li>
+ *     <li>The color map</li>
+ *     <li>The complex number at the tile's top-left corner</li>
+ *     <li>The size of a pixel on each axis, and the size of the tile</li>
+ * </ul>
+ *
+ * The cache holds at most a given number of bytes of pixels. When it is full,
+ * the least recently used tiles are thrown out first. It counts how many
+ * lookups found a tile and how many did not.
+ *
+ * A cache may also have a `DiskTileStore` behind it. Tiles not in memory are
+ * then looked for on disk (and brought into memory if found), and every tile
+ * put in the cache is also written to disk, even if it is too big to keep in
+ * memory. How much one cache may write to disk can be capped, so that one
+ * big job (ex. an export) cannot push everything else out of the store.
+ *
+ * All the methods are thread-safe, so one cache can be shared by any number
+ * of threads. The disk store is only used outside the cache's own lock, so
+ * threads that find their tiles in memory never wait on one that is reading
+ * from disk.
+ *
+ * @see PlotRenderer#renderCached(RenderJob, TileCache)
+ * @see DiskTileStore
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class TileCache {
+
+    // Constants: --------------------------------------------------------------
+
+    /** The width and height of a tile, except at the right and bottom edges */
+    public static final int TILE_SIZE = 64;
+
+    // Roughly how much memory each tile takes other than its pixels
+    private static final int TILE_OVERHEAD = 128;
+
+    private static TileCache defaultCache;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final long maxBytes;
+    // May be null
+    private final DiskTileStore store;
+    private final long maxStoreBytes;
+    private long bytes = 0;
+    private long storeBytes = 0;
+
+    // In access order, so the first entry is the least recently used
+    private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(16, .75f, true);
+
+    private long hits = 0;
+    private long misses = 0;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param maxBytes The most memory the tiles may take up
+     */
+    public TileCache(long maxBytes){
+        this(maxBytes, null);
+    }
+
+    /**
+     * @param maxBytes The most memory the tiles may take up
+     * @param store Where to look for tiles that are not in memory, and where
+     *              to save new tiles, or null to only use memory
+     */
+    public TileCache(long maxBytes, DiskTileStore store){
+        this(maxBytes, store, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes The most memory the tiles may take up
+     * @param store Where to look for tiles that are not in memory, and where
+     *              to save new tiles, or null to only use memory
+     * @param maxStoreBytes About the most this cache may write to `store`.
+     *                      After that, tiles are still looked for there, but
+     *                      new ones are only kept in memory.
+     */
+    public TileCache(long maxBytes, DiskTileStore store, long maxStoreBytes){
+        this.maxBytes = maxBytes;
+        this.store = store;
+        this.maxStoreBytes = maxStoreBytes;
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /**
+     * @return The cache shared by the whole program. Its size in megabytes is
+     *         read from the system property `cs.ratnani.tileCacheMB`, and is
+     *         64 if that is not set. It is backed by the default disk
+     *         store, if there is one.
+     * @see DiskTileStore#getDefault()
+     */
+    public static synchronized TileCache getDefault(){
+        if(defaultCache == null)
+            defaultCache = new TileCache(
+                    Integer.getInteger("cs.ratnani.tileCacheMB", 64) * 1024L * 1024L,
+                    DiskTileStore.getDefault()
+            );
+        return defaultCache;
+    }
+
+    /** @return The disk store behind this cache, or null if there is none */
+    public DiskTileStore getStore(){ return store; }
+
+    /** @return The most memory the tiles may take up */
+    public long getMaxBytes(){ return maxBytes; }
+
+    /** @return Roughly how much memory the tiles take up now */
+    public synchronized long getBytes(){ return bytes; }
+
+    /** @return How many tiles are stored */
+    public synchronized int getSize(){ return tiles.size(); }
+
+    /** @return How many calls to `get()` found a tile, in memory or on disk */
+    public synchronized long getHits(){ return hits; }
+
+    /** @return How many calls to `get()` did not find a tile */
+    public synchronized long getMisses(){ return misses; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Looks up a tile, counting whether it was found.
+     *
+     * @param k The tile to look for
+     * @return The tile's pixels, row after row, or null if it is not stored.
+     *         These must not be changed.
+     */
+    public int[] get(Key k){
+        synchronized(this){
+            int[] ret = tiles.get(k);
+            if(ret != null || store == null){
+                count(ret);
+                return ret;
+            }
+        }
+
+        int[] ret = store.get(k);
+        synchronized(this){
+            if(ret != null)
+                keep(k, ret);
+            count(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Checks for a tile without counting it as a lookup or as a use.
+     *
+     * @param k The tile to look for
+     * @return Whether the tile is stored
+     */
+    public boolean contains(Key k){
+        synchronized(this){
+            if(tiles.containsKey(k))
+                return true;
+        }
+        return store != null && store.contains(k);
+    }
+
+    /**
+     * Stores a tile, throwing out the least recently used ones if there is
+     * not enough room. Tiles bigger than the whole cache are not kept in
+     * memory, but are still written to the disk store (in the background,
+     * see `DiskTileStore.put()`) unless this cache has written all it may.
+     *
+     * @param k The tile's key
+     * @param rgb The tile's pixels, row after row. These must not be changed
+     *            afterwards.
+     */
+    public void put(Key k, int[] rgb){
+        if(store != null && reserve(rgb))
+            store.put(k, rgb);
+        synchronized(this){
+            keep(k, rgb);
+        }
+    }
+
+    /**
+     * Throws out every tile in memory. The hit and miss counts are kept, and
+     * the disk store is not touched.
+     */
+    public synchronized void clear(){
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /** @return The hit and miss counts and the memory used */
+    @Override
+    public String toString(){
+        String disk = store == null ? "" : "; " + store;
+        synchronized(this){
+            long total = hits + misses;
+            return String.format(
+                    "%d tiles, %d/%d KB, %d hits, %d misses (%.1f%% hit rate)",
+                    tiles.size(), bytes / 1024, maxBytes / 1024, hits, misses,
+                    total == 0 ? 0.0 : 100.0 * hits / total
+            ) + disk;
+        }
+    }
+
+    /**
+     * Makes the key for the tile of a job whose top-left pixel is (c0, r0).
+     *
+     * @param job The job the tile is part of
+     * @param c0 The tile's first column
+     * @param r0 The tile's first row
+     * @param w The tile's width
+     * @param h The tile's height
+     * @return The key for that tile
+     */
+    public static Key keyFor(RenderJob job, int c0, int r0, int w, int h){
+        Viewport v = job.getViewport();
+        return new Key(
+                job.getFunction(),
+                job.getColors(),
+                job.getPrecision(),
+                job.getT(),
+                v.reAt(c0),
+                v.imAt(r0),
+                (v.getReUp() - v.getReDo()) / v.getWidth(),
+                (v.getImUp() - v.getImDo()) / v.getHeight(),
+                w,
+                h
+        );
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Keeps a tile in memory, throwing out the least recently used ones if
+     * there is not enough room. Tiles bigger than the whole cache are not
+     * kept.
+     */
+    private void keep(Key k, int[] rgb){
+        long size = sizeOf(rgb);
+        if(size > maxBytes)
+            return;
+
+        int[] old = tiles.put(k, rgb);
+        if(old != null)
+            bytes -= sizeOf(old);
+        bytes += size;
+
+        // Evict from the least recently used end
+        Iterator<Map.Entry<Key, int[]>> it = tiles.entrySet().iterator();
+        while(bytes > maxBytes && it.hasNext()){
+            bytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * @return Whether `rgb` may still be written to the disk store, in which
+     *         case it is counted as written
+     */
+    private synchronized boolean reserve(int[] rgb){
+        if(storeBytes + sizeOf(rgb) > maxStoreBytes)
+            return false;
+        storeBytes += sizeOf(rgb);
+        return true;
+    }
+
+    /** Counts a lookup that found `rgb`, which is null if it found nothing */
+    private void count(int[] rgb){
+        if(rgb == null)
+            misses++;
+        else
+            hits++;
+    }
+
+    private static long sizeOf(int[] rgb){
+        return 4L * rgb.length + TILE_OVERHEAD;
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * The key a tile is stored under. See the class description for what is
+     * in it.
+     */
+    public static final class Key {
+
+        private final CompiledFunction function;
+        private final ColorMap colors;
+        private final Precision precision;
+        // The function's parameter
+        private final double tRe;
+        private final double tIm;
+        private final double re;
+        private final double im;
+        private final double reScale;
+        private final double imScale;
+        private final int w;
+        private final int h;
+        private final int hash;
+
+        Key(CompiledFunction function, ColorMap colors, Precision precision, Complex t,
+            double re, double im, double reScale, double imScale, int w, int h){
+            this.function = function;
+            this.colors = colors;
+            this.precision = precision;
+            this.tRe = t.getRe();
+            this.tIm = t.getIm();
+            this.re = re;
+            this.im = im;
+            this.reScale = reScale;
+            this.imScale = imScale;
+            this.w = w;
+            this.h = h;
+
+            int ret = function.hashCode();
+            ret = 31*ret + System.identityHashCode(colors);
+            ret = 31*ret + precision.ordinal();
+            ret = 31*ret + Double.hashCode(tRe);
+            ret = 31*ret + Double.hashCode(tIm);
+            ret = 31*ret + Double.hashCode(re);
+            ret = 31*ret + Double.hashCode(im);
+            ret = 31*ret + Double.hashCode(reScale);
+            ret = 31*ret + Double.hashCode(imScale);
+            ret = 31*ret + w;
+            ret = 31*ret + h;
+            hash = ret;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash
+                    && colors == k.colors
+                    && precision == k.precision
+                    && Double.doubleToLongBits(tRe) == Double.doubleToLongBits(k.tRe)
+                    && Double.doubleToLongBits(tIm) == Double.doubleToLongBits(k.tIm)
+                    && Double.doubleToLongBits(re) == Double.doubleToLongBits(k.re)
+                    && Double.doubleToLongBits(im) == Double.doubleToLongBits(k.im)
+                    && Double.doubleToLongBits(reScale) == Double.doubleToLongBits(k.reScale)
+                    && Double.doubleToLongBits(imScale) == Double.doubleToLongBits(k.imScale)
+                    && w == k.w
+                    && h == k.h
+                    && function.equals(k.function);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        /**
+         * Writes out everything in this key, to find the tile again in a later
+         * run.
+         *
+         * @return The bytes of this key, or null if its color map has no id
+         * @see ColorMap#getId()
+         */
+        byte[] toBytes(){
+            String id = colors.getId();
+            if(id == null)
+                return null;
+            byte[] f = function.toCanonicalBytes();
+            byte[] c = id.getBytes(StandardCharsets.UTF_8);
+
+            ByteBuffer ret = ByteBuffer.allocate(4 + f.length + 4 + c.length + 4 + 6*8 + 2*4);
+            ret.putInt(f.length).put(f);
+            ret.putInt(c.length).put(c);
+            ret.putInt(precision.ordinal());
+            ret.putDouble(tRe).putDouble(tIm);
+            ret.putDouble(re).putDouble(im).putDouble(reScale).putDouble(imScale);
+            ret.putInt(w).putInt(h);
+            return ret.array();
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+package cs.ratnani.render;
+
+import cs.ratnani.math.ComplexMath;
+
+import java.awt.*;
+
+
+/**
+ * This class represents the part of the complex plane being plotted and the
+ * size of the image it is plotted to. It is immutable, so it can be shared
+ * between threads and used as a key.
+ *
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public final class Viewport {
+
+    // Constants: --------------------------------------------------------------
+
+    // How far from a whole number of pixels `shiftFrom()` will allow
+    private static final double SHIFT_TOLERANCE = 1e-6;
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    private final double reUp;
+    private final double reDo;
+    private final double imUp;
+    private final double imDo;
+    private final int width;
+    private final int height;
+
+
+    // Constructors: -----------------------------------------------------------
+
+    /**
+     * @param reUp The upper bound on the real axis
+     * @param reDo The lower bound on the real axis
+     * @param imUp The upper bound on the imaginary axis
+     * @param imDo The lower bound on the imaginary axis
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     */
+    public Viewport(double reUp, double reDo, double imUp, double imDo, int width, int height){
+        this.reUp = reUp;
+        this.reDo = reDo;
+        this.imUp = imUp;
+        this.imDo = imDo;
+        this.width = width;
+        this.height = height;
+    }
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return The upper bound on the real axis */
+    public double getReUp(){ return reUp; }
+
+    /** @return The lower bound on the real axis */
+    public double getReDo(){ return reDo; }
+
+    /** @return The upper bound on the imaginary axis */
+    public double getImUp(){ return imUp; }
+
+    /** @return The lower bound on the imaginary axis */
+    public double getImDo(){ return imDo; }
+
+    /** @return The width of the image in pixels */
+    public int getWidth(){ return width; }
+
+    /** @return The height of the image in pixels */
+    public int getHeight(){ return height; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * @param c A column
+     * @return The real part of the numbers at column `c`
+     * @see ComplexMath#numAtC(int, int, double, double)
+     */
+    public double reAt(int c){ return ComplexMath.numAtC(c, width, reUp, reDo); }
+
+    /**
+     * @param r A row
+     * @return The imaginary part of the numbers at row `r`
+     * @see ComplexMath#numAtR(int, int, double, double)
+     */
+    public double imAt(int r){ return ComplexMath.numAtR(r, height, imUp, imDo); }
+
+    /**
+     * Checks whether this viewport is `old` moved by a whole number of pixels,
+     * with the same size and scale. If it is, the pixel at column `c` and row
+     * `r` here shows the same number as the pixel at column `c + dx` and row
+     * `r + dy` in `old` (to within rounding).
+     *
+     * @param old The viewport from before
+     * @return The shift (dx, dy), or null if this is not a pixel-aligned
+     *         shift of `old`
+     */
+    public Point shiftFrom(Viewport old){
+        if(width != old.width || height != old.height)
+            return null;
+
+        // Same scale on both axes
+        double reSpan = reUp - reDo;
+        double imSpan = imUp - imDo;
+        if(!closeTo(reSpan, old.reUp - old.reDo) || !closeTo(imSpan, old.imUp - old.imDo))
+            return null;
+
+        // See `ComplexMath.numAtC()` and `ComplexMath.numAtR()`
+        double dx = (reDo - old.reDo) / (reSpan / width);
+        double dy = (old.imUp - imUp) / (imSpan / height);
+        if(Double.isNaN(dx) || Double.isNaN(dy)
+                || Math.abs(dx - Math.rint(dx)) > SHIFT_TOLERANCE
+                || Math.abs(dy - Math.rint(dy)) > SHIFT_TOLERANCE
+                || Math.abs(dx) > Integer.MAX_VALUE || Math.abs(dy) > Integer.MAX_VALUE)
+            return null;
+        return new Point((int) Math.rint(dx), (int) Math.rint(dy));
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof Viewport))
+            return false;
+        Viewport v = (Viewport) o;
+        // Compare the bits so this agrees with `hashCode()`
+        return Double.doubleToLongBits(reUp) == Double.doubleToLongBits(v.reUp)
+                && Double.doubleToLongBits(reDo) == Double.doubleToLongBits(v.reDo)
+                && Double.doubleToLongBits(imUp) == Double.doubleToLongBits(v.imUp)
+                && Double.doubleToLongBits(imDo) == Double.doubleToLongBits(v.imDo)
+                && width == v.width
+                && height == v.height;
+    }
+
+    @Override
+    public int hashCode(){
+        int ret = Double.hashCode(reUp);
+        ret = 31*ret + Double.hashCode(reDo);
+        ret = 31*ret + Double.hashCode(imUp);
+        ret = 31*ret + Double.hashCode(imDo);
+        ret = 31*ret + width;
+        ret = 31*ret + height;
+        return ret;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("[%s, %s] x [%s, %s] @ %dx%d", reDo, reUp, imDo, imUp, width, height);
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /** @return Whether `a` and `b` are equal, other than rounding */
+    private static boolean closeTo(double a, double b){
+        return Math.abs(a - b) <= 1e-9 * Math.max(Math.abs(a), Math.abs(b));
+    }
+
+}
@@ -1,7 +1,16 @@
 package cs.ratnani.ui;
 
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.ColorTable;
+import cs.ratnani.math.CompiledFunction;
 import cs.ratnani.math.Complex;
 import cs.ratnani.math.ComplexMath;
+import cs.ratnani.math.Precision;
+import cs.ratnani.render.PlotRenderer;
+import cs.ratnani.render.RenderExecutor;
+import cs.ratnani.render.TileCache;
+import cs.ratnani.render.Viewport;
+import cs.ratnani.util.RenderMetrics;
 import cs.ratnani.util.TriggerList;
 import cs.ratnani.util.TriggerListener;
 
@@ -47,7 +56,7 @@ public class TopWindow extends JFrame {
 
     // To store the values for each text box, to be set when the user hits
     //  "Plot"
-    private String currentFunc;
+    private CompiledFunction currentFunc;
     private boolean funcOrBoundsChanged;
     private double reUpT;
     private double reDoT;
@@ -94,8 +103,8 @@ public class TopWindow extends JFrame {
      * @throws IllegalArgumentException If the bounds or function is invalid
      */
     private void updateBoundsAndFunction() throws IllegalArgumentException{
-        // Check if function is valid by testing a point
-        ComplexMath.parsePostfix(funcField.getText(),new Complex());
+        // Check if function is valid by compiling it
+        CompiledFunction f = CompiledFunction.compile(funcField.getText());
         // Try to cause an exception
         reUpT = Double.parseDouble(reUpField.getText());
         reDoT = Double.parseDouble(reDoField.getText());
@@ -104,7 +113,7 @@ public class TopWindow extends JFrame {
 
         // If none of those caused an error, we're good to
         //  go
-        currentFunc = funcField.getText();
+        currentFunc = f;
         funcOrBoundsChanged = true;
     }
 
@@ -193,8 +202,8 @@ public class TopWindow extends JFrame {
         // Constructors: -------------------------------------------------------
 
         public ButtonBar(){
-            // This bar consists of an About and Export button aligned to the
-            //  right
+            // This bar consists of an Export, Stats, and About button aligned
+            //  to the right
             this.setLayout(new FlowLayout(FlowLayout.RIGHT, 10, 10));
 
             JButton export = new JButton("Export...");
@@ -232,6 +241,19 @@ public class TopWindow extends JFrame {
             this.add(export);
 
 
+            JButton stats = new JButton("Stats...");
+            // OnClick, show how fast plotting has been so far
+            stats.addActionListener(
+                    e -> JOptionPane.showMessageDialog(null,
+                            RenderMetrics.getDefault().snapshot()
+                                    + "\nTile cache: " + TileCache.getDefault(),
+                            "Stats",
+                            JOptionPane.PLAIN_MESSAGE
+                    )
+            );
+            this.add(stats);
+
+
             JButton about = new JButton("About...");
             // OnClick
             about.addActionListener(
@@ -400,15 +422,24 @@ public class TopWindow extends JFrame {
 
                 // Private Variables: ------------------------------------------
 
-                private BufferedImage currentImage = null;
-                private boolean imageReady = false;
+                // Written by `backgroundPlot`, so they have to be volatile
+                private volatile BufferedImage currentImage = null;
+                // What went wrong with the last plot, or null if nothing did
+                private volatile String plotError = null;
+                // Which plot `currentImage` and `plotError` came from. It is
+                //  only ready if that is the latest one, `plotGeneration`, so
+                //  a pass from an older plot that sneaks in before
+                //  `submit()` cannot make it look ready.
+                private volatile long shownGeneration = 0;
+                private long plotGeneration = 0;
 
                 // To check if we have re-sized
                 private int lastWidth;
                 private int lastHeight;
 
-                // Thread to plot in the background
-                Thread backgroundPlot;
+                // To plot in the background
+                private final RenderExecutor backgroundPlot =
+                        new RenderExecutor(PlotRenderer.getDefault(), TileCache.getDefault());
 
 
                 // Constructors: -----------------------------------------------
@@ -471,7 +502,7 @@ public class TopWindow extends JFrame {
                             lastHeight = this.getHeight();
 
                             funcOrBoundsChanged = false;
-                            imageReady = false;
+                            long gen = ++plotGeneration;
 
                             // Draw loading text
                             g2d.drawString(
@@ -480,31 +511,54 @@ public class TopWindow extends JFrame {
                                     this.getHeight() / 2
                             );
 
-                            // If we are already plotting something, stop
-                            if(backgroundPlot != null && backgroundPlot.isAlive())
-                                // Yes, `stop()` is deprecated, but I don't care
-                                backgroundPlot.stop();
-
-                            // Plot in the background
-                            backgroundPlot = new Thread(() -> {
-                                currentImage = ComplexMath.plot(
-                                        currentFunc,
-                                        reUpT,
-                                        reDoT,
-                                        imUpT,
-                                        imDoT,
-                                        lastWidth,
-                                        lastHeight
-                                );
-                                // When we are done, the image is ready, and
-                                //  call `repaint()`
-                                imageReady = true;
-                                plotList.trigger();
-                            });
-                            backgroundPlot.start();
+                            // Plot in the background. This also stops
+                            //  whatever we were plotting before, and makes
+                            //  sure nothing from it gets drawn.
+                            backgroundPlot.submit(
+                                    currentFunc,
+                                    new Viewport(
+                                            reUpT,
+                                            reDoT,
+                                            imUpT,
+                                            imDoT,
+                                            lastWidth,
+                                            lastHeight
+                                    ),
+                                    // The final image is the same as
+                                    //  `ComplexMath.plot()` makes
+                                    ColorMap.EXACT,
+                                    // The rough passes only have to be
+                                    //  close, and show up sooner
+                                    ColorTable.getDefault(),
+                                    Precision.FAST,
+                                    img -> {
+                                        // After each pass, the (rough) image
+                                        //  is ready, so call `repaint()`
+                                        currentImage = img;
+                                        plotError = null;
+                                        shownGeneration = gen;
+                                        plotList.trigger();
+                                    },
+                                    e -> {
+                                        // Show what went wrong instead of
+                                        //  "Loading..." forever
+                                        e.printStackTrace();
+                                        plotError = "Could not plot: " + e;
+                                        shownGeneration = gen;
+                                        plotList.trigger();
+                                        UIHelper.playSoundNonBlocking(ERROR_SOUND_PATH);
+                                    }
+                            );
                         } // ENDIF: funcOrBoundsChanged
 
-                        if(imageReady) {
+                        String error = plotError;
+                        if(shownGeneration == plotGeneration && error != null){
+                            g2d.drawString(
+                                    error,
+                                    10,
+                                    this.getHeight() / 2
+                            );
+                        } else if(shownGeneration == plotGeneration) {
                             g2d.drawImage(
                                     currentImage,
                                     0,
@@ -529,7 +583,7 @@ public class TopWindow extends JFrame {
                             );
 
                             // Compute f(`lastPointed`)
-                            Complex res = ComplexMath.parsePostfix(currentFunc,lastPointed);
+                            Complex res = currentFunc.evaluate(lastPointed);
 
                             // Compute its r and c
                             int cf = ComplexMath.colOf(res, this.getWidth(), reUpT, reDoT);
@@ -543,7 +597,7 @@ public class TopWindow extends JFrame {
                                     CIRCLE_RADIUS,
                                     CIRCLE_RADIUS
                             );
-                        } // ENDIF: imageReady
+                        } // ENDIF: ready
                     } else {
                         // Fill it with gray if it is our first time
                         g2d.setColor(Color.GRAY);
@@ -715,7 +769,7 @@ public class TopWindow extends JFrame {
 
             public void onTrigger(){
                 // Calculate the result
-                Complex res = ComplexMath.parsePostfix(currentFunc,lastPointed);
+                Complex res = currentFunc.evaluate(lastPointed);
 
                 // Update the text on each of the parts to ten digits max
                 re.setText(String.format("Re(z) = %.3f", res.getRe()));
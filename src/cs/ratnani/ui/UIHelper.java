@@ -1,8 +1,15 @@
 package cs.ratnani.ui;
 
-import cs.ratnani.math.ComplexMath;
+import cs.ratnani.math.ColorMap;
+import cs.ratnani.math.CompiledFunction;
+import cs.ratnani.render.DiskTileStore;
+import cs.ratnani.render.PlotRenderer;
+import cs.ratnani.render.RenderJob;
+import cs.ratnani.render.ResumableExporter;
+import cs.ratnani.render.StreamingExporter;
+import cs.ratnani.render.TileCache;
+import cs.ratnani.render.Viewport;
 
-import javax.imageio.ImageIO;
 import javax.sound.sampled.*;
 import java.io.File;
 import java.io.IOException;
@@ -19,8 +26,16 @@ class UIHelper {
 
     // Constants: --------------------------------------------------------------
 
-    // For the images we save
-    private static final int EXPORT_HEIGHT = 2048;
+    // For the images we save. Since they are streamed to the file, this can
+    //  be very large (ex. 32768) without running out of memory.
+    private static final int EXPORT_HEIGHT = Integer.getInteger("cs.ratnani.exportHeight", 2048);
+
+    // Exports with at least this many pixels take long enough that they are
+    //  checkpointed, so they can be resumed if the program dies
+    private static final long RESUMABLE_PIXELS = 1L << 26;
+
+    // The most of the disk tile store one export may fill with new tiles
+    private static final double EXPORT_STORE_SHARE = .25;
 
 
     // Public Methods: ---------------------------------------------------------
@@ -71,7 +86,10 @@ class UIHelper {
 
     /**
      * Writes a plot to a passed file object, or overwrites if it exists, as a
-     * "png".
+     * "png". It is `EXPORT_HEIGHT` pixels high, which comes from the system
+     * property `cs.ratnani.exportHeight`, and as wide as the bounds call for.
+     * Very large plots go through a raw file next to `F` first, so exporting
+     * the same plot to the same file again picks up where it left off.
      *
      * @param F The file to write
      * @param f The function to plot
@@ -80,18 +98,18 @@ class UIHelper {
      * @param imUp The upper bound on the imaginary axis
      * @param imDo The lower bound on the imaginary axis
      */
-    static void writePlotTo(File F, String f, double reUp, double reDo,
+    static void writePlotTo(File F, CompiledFunction f, double reUp, double reDo,
                                    double imUp, double imDo){
-        int exportWidth = (int) (EXPORT_HEIGHT * (reUp-reDo) / (imUp - imDo));
+        int exportWidth = Math.max(1, (int) (EXPORT_HEIGHT * (reUp-reDo) / (imUp - imDo)));
             // Scale `exportWidth` so it matches the aspect ratio of the bounds
 
         // Non-blocking
         new Thread(
                 () -> {
                     try {
-                        ImageIO.write(
-                                ComplexMath.plot(
-                                        f,
+                        RenderJob job = new RenderJob(
+                                f,
+                                new Viewport(
                                         reUp,
                                         reDo,
                                         imUp,
@@ -99,9 +117,22 @@ class UIHelper {
                                         exportWidth,
                                         EXPORT_HEIGHT
                                 ),
-                                "png",
-                                F
+                                // Unlike on screen, use exact colors and
+                                //  `Precision.STRICT` math
+                                ColorMap.EXACT
                         );
+                        // Reuse and save tiles on disk, but do not push the
+                        //  on-screen tiles out of memory, or more than
+                        //  `EXPORT_STORE_SHARE` of everything else out of the
+                        //  disk store
+                        DiskTileStore store = DiskTileStore.getDefault();
+                        TileCache cache = store == null
+                                ? null
+                                : new TileCache(0, store, (long) (store.getMaxBytes() * EXPORT_STORE_SHARE));
+                        if((long) exportWidth * EXPORT_HEIGHT >= RESUMABLE_PIXELS)
+                            new ResumableExporter(PlotRenderer.getDefault()).export(job, cache, F);
+                        else
+                            new StreamingExporter(PlotRenderer.getDefault()).export(job, cache, F);
                     } catch (IOException e){
                         e.printStackTrace();
                         playSoundNonBlocking(TopWindow.ERROR_SOUND_PATH);
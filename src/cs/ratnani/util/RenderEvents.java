@@ -0,0 +1,377 @@
+package cs.ratnani.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * This class holds the JDK Flight Recorder events for plotting, so a slow
+ * plot can be looked into with a recording (ex. `-XX:StartFlightRecording`)
+ * and JDK Mission Control. There are events for:
+ * <ul>
+ *     <li>each whole plot, from start to end,</li>
+ *     <li>each tile computed, and each one found in a cache,</li>
+ *     <li>each plot or export that was cancelled, and</li>
+ *     <li>each image written to a file.</li>
+ * </ul>
+ * They carry the function, the number of pixels, the number of threads, and
+ * how many pixels were done per second. They all go under "Complex Plotter"
+ * in Mission Control.
+ *
+ * Each event also adds to the totals in `RenderMetrics.getDefault()`, whether
+ * or not anything is recording. When nothing is, an event costs about as much
+ * as the `System.nanoTime()` calls to time it.
+ *
+ * This lives here rather than in `render` so `ComplexMath` can use it too.
+ *
+ * @see RenderMetrics
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public final class RenderEvents {
+
+    // Constants: --------------------------------------------------------------
+
+    private static final String CATEGORY = "Complex Plotter";
+
+
+    // Constructors: -----------------------------------------------------------
+
+    // Only the subclasses are used
+    private RenderEvents(){}
+
+
+    // Private Methods: --------------------------------------------------------
+
+    private static double rate(long pixels, long nanos){
+        return nanos <= 0 ? 0 : pixels * 1e9 / nanos;
+    }
+
+    private static void cancelled(String function, String kind, long pixels, int threads){
+        RenderMetrics.getDefault().cancellations.increment();
+        Cancelled e = new Cancelled();
+        if(e.isEnabled()){
+            e.function = function;
+            e.kind = kind;
+            e.pixels = pixels;
+            e.threads = threads;
+            e.commit();
+        }
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * A whole plot, from when it was started to when it finished, was
+     * cancelled, or failed. Start one with `start()` and call `finish()`,
+     * `cancel()`, or `fail()` once.
+     */
+    @Name("cs.ratnani.Render")
+    @Label("Render")
+    @Category({CATEGORY, "Render"})
+    @Description("A whole plot of a function")
+    @StackTrace(false)
+    public static final class Render extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Kind")
+        @Description("How it was plotted (ex. progressive, cached, panned)")
+        String kind;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Pixels per Second")
+        double pixelsPerSecond;
+
+        @Label("Cancelled")
+        boolean cancelled;
+
+        @Label("Error")
+        @Description("What went wrong, if the plot failed")
+        String error;
+
+        // Not recorded
+        private transient long startNanos;
+
+        /**
+         * @param kind How it is being plotted
+         * @param function The function, as the user typed it
+         * @param pixels How many pixels the plot has
+         * @param threads How many threads are plotting it
+         * @return The event, already started
+         */
+        public static Render start(String kind, String function, long pixels, int threads){
+            Render ret = new Render();
+            ret.kind = kind;
+            ret.function = function;
+            ret.pixels = pixels;
+            ret.threads = threads;
+            ret.startNanos = System.nanoTime();
+            ret.begin();
+            return ret;
+        }
+
+        /** Records that the plot finished */
+        public void finish(){
+            long nanos = System.nanoTime() - startNanos;
+            RenderMetrics m = RenderMetrics.getDefault();
+            m.renders.increment();
+            m.renderPixels.add(pixels);
+            m.renderNanos.add(nanos);
+            record(nanos);
+        }
+
+        /** Records that the plot was cancelled before it finished */
+        public void cancel(){
+            cancelled = true;
+            record(System.nanoTime() - startNanos);
+            cancelled(function, kind, pixels, threads);
+        }
+
+        /**
+         * Records that the plot stopped because of an error
+         *
+         * @param e What went wrong
+         */
+        public void fail(Throwable e){
+            error = e.toString();
+            record(System.nanoTime() - startNanos);
+        }
+
+        private void record(long nanos){
+            end();
+            if(shouldCommit()){
+                pixelsPerSecond = cancelled || error != null ? 0 : rate(pixels, nanos);
+                commit();
+            }
+        }
+
+    }
+
+    /**
+     * One tile of a plot that had to be computed.
+     */
+    @Name("cs.ratnani.Tile")
+    @Label("Tile")
+    @Category({CATEGORY, "Render"})
+    @Description("One tile of a plot that was computed")
+    @StackTrace(false)
+    public static final class Tile extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Column")
+        int column;
+
+        @Label("Row")
+        int row;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Pixels per Second")
+        double pixelsPerSecond;
+
+        private transient long startNanos;
+
+        /**
+         * @param function The function, as the user typed it
+         * @param column The first column of the tile in its plot
+         * @param row The first row of the tile in its plot
+         * @param pixels How many pixels the tile has
+         * @return The event, already started
+         */
+        public static Tile start(String function, int column, int row, long pixels){
+            Tile ret = new Tile();
+            ret.function = function;
+            ret.column = column;
+            ret.row = row;
+            ret.pixels = pixels;
+            ret.startNanos = System.nanoTime();
+            ret.begin();
+            return ret;
+        }
+
+        /** Records that the tile was computed */
+        public void finish(){
+            long nanos = System.nanoTime() - startNanos;
+            RenderMetrics m = RenderMetrics.getDefault();
+            m.tiles.increment();
+            m.tilePixels.add(pixels);
+            m.tileNanos.add(nanos);
+            end();
+            if(shouldCommit()){
+                pixelsPerSecond = rate(pixels, nanos);
+                commit();
+            }
+        }
+
+    }
+
+    /**
+     * One tile of a plot that was found in a cache.
+     */
+    @Name("cs.ratnani.CacheHit")
+    @Label("Tile Cache Hit")
+    @Category({CATEGORY, "Render"})
+    @Description("One tile of a plot that was found in a cache instead of being computed")
+    @StackTrace(false)
+    public static final class CacheHit extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Column")
+        int column;
+
+        @Label("Row")
+        int row;
+
+        @Label("Pixels")
+        long pixels;
+
+        /**
+         * Records that a tile was found in a cache.
+         *
+         * @param function The function, as the user typed it
+         * @param column The first column of the tile in its plot
+         * @param row The first row of the tile in its plot
+         * @param pixels How many pixels the tile has
+         */
+        public static void hit(String function, int column, int row, long pixels){
+            RenderMetrics.getDefault().cacheHits.increment();
+            CacheHit e = new CacheHit();
+            if(e.isEnabled()){
+                e.function = function;
+                e.column = column;
+                e.row = row;
+                e.pixels = pixels;
+                e.commit();
+            }
+        }
+
+    }
+
+    /**
+     * A plot or export that was cancelled. The `Render` or `Export` event
+     * for it is also marked as cancelled; this one is so cancellations are
+     * easy to count.
+     */
+    @Name("cs.ratnani.Cancelled")
+    @Label("Cancelled")
+    @Category({CATEGORY, "Render"})
+    @Description("A plot or export that was cancelled before it finished")
+    public static final class Cancelled extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Kind")
+        String kind;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Threads")
+        int threads;
+
+    }
+
+    /**
+     * An image written to a file, from start to end. Start one with
+     * `start()` and call `finish()` or `cancel()` once.
+     */
+    @Name("cs.ratnani.Export")
+    @Label("Export")
+    @Category({CATEGORY, "Export"})
+    @Description("A plot written to a file")
+    @StackTrace(false)
+    public static final class Export extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Path")
+        String path;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+
+        @Label("Pixels per Second")
+        double pixelsPerSecond;
+
+        @Label("Cancelled")
+        boolean cancelled;
+
+        private transient long startNanos;
+
+        /**
+         * @param function The function, as the user typed it
+         * @param path Where the image is going
+         * @param pixels How many pixels the image has
+         * @param threads How many threads are plotting it
+         * @return The event, already started
+         */
+        public static Export start(String function, String path, long pixels, int threads){
+            Export ret = new Export();
+            ret.function = function;
+            ret.path = path;
+            ret.pixels = pixels;
+            ret.threads = threads;
+            ret.startNanos = System.nanoTime();
+            ret.begin();
+            return ret;
+        }
+
+        /**
+         * Records that the image was written.
+         *
+         * @param bytes How big the file ended up
+         */
+        public void finish(long bytes){
+            long nanos = System.nanoTime() - startNanos;
+            RenderMetrics m = RenderMetrics.getDefault();
+            m.exports.increment();
+            m.exportPixels.add(pixels);
+            m.exportNanos.add(nanos);
+            m.exportBytes.add(bytes);
+            end();
+            if(shouldCommit()){
+                this.bytes = bytes;
+                pixelsPerSecond = rate(pixels, nanos);
+                commit();
+            }
+        }
+
+        /** Records that the export was cancelled before it finished */
+        public void cancel(){
+            cancelled = true;
+            end();
+            if(shouldCommit())
+                commit();
+            cancelled(function, "export", pixels, threads);
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+package cs.ratnani.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * This class keeps running totals of everything the program has plotted:
+ * how many plots, how many pixels and how long they took, how many tiles were
+ * computed or found in a cache, how many plots were cancelled, and how much
+ * was exported. They are only ever added to, from any thread, so counting
+ * costs next to nothing. `snapshot()` reads them all at once for the UI or
+ * the command line.
+ *
+ * The totals are filled in by `RenderEvents`, which also sends the same
+ * things to the JDK Flight Recorder when it is recording.
+ *
+ * @see RenderEvents
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public final class RenderMetrics {
+
+    // Instance Variables: -----------------------------------------------------
+
+    private static final RenderMetrics DEFAULT = new RenderMetrics();
+
+    final LongAdder renders = new LongAdder();
+    final LongAdder renderPixels = new LongAdder();
+    final LongAdder renderNanos = new LongAdder();
+    final LongAdder cancellations = new LongAdder();
+
+    final LongAdder tiles = new LongAdder();
+    final LongAdder tilePixels = new LongAdder();
+    final LongAdder tileNanos = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+
+    final LongAdder exports = new LongAdder();
+    final LongAdder exportPixels = new LongAdder();
+    final LongAdder exportNanos = new LongAdder();
+    final LongAdder exportBytes = new LongAdder();
+
+
+    // Constructors: -----------------------------------------------------------
+
+    // Everything shares the one from `getDefault()`
+    private RenderMetrics(){}
+
+
+    // Getters/Setters: --------------------------------------------------------
+
+    /** @return The totals for the whole program */
+    public static RenderMetrics getDefault(){ return DEFAULT; }
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Reads every total. Plots still going on may be half counted, but each
+     * number is one that was true at some point.
+     *
+     * @return The totals so far
+     */
+    public Snapshot snapshot(){
+        return new Snapshot(this);
+    }
+
+
+    // Subclasses: -------------------------------------------------------------
+
+    /**
+     * The totals at one point in time. Plots only count once they finish, or
+     * once they are cancelled.
+     */
+    public static final class Snapshot {
+
+        private final long renders;
+        private final long renderPixels;
+        private final long renderNanos;
+        private final long cancellations;
+        private final long tiles;
+        private final long tilePixels;
+        private final long tileNanos;
+        private final long cacheHits;
+        private final long exports;
+        private final long exportPixels;
+        private final long exportNanos;
+        private final long exportBytes;
+
+        private Snapshot(RenderMetrics m){
+            renders = m.renders.sum();
+            renderPixels = m.renderPixels.sum();
+            renderNanos = m.renderNanos.sum();
+            cancellations = m.cancellations.sum();
+            tiles = m.tiles.sum();
+            tilePixels = m.tilePixels.sum();
+            tileNanos = m.tileNanos.sum();
+            cacheHits = m.cacheHits.sum();
+            exports = m.exports.sum();
+            exportPixels = m.exportPixels.sum();
+            exportNanos = m.exportNanos.sum();
+            exportBytes = m.exportBytes.sum();
+        }
+
+        /** @return How many plots finished */
+        public long getRenders(){ return renders; }
+
+        /** @return How many pixels the finished plots had */
+        public long getRenderPixels(){ return renderPixels; }
+
+        /** @return How long the finished plots took in all, in nanoseconds */
+        public long getRenderNanos(){ return renderNanos; }
+
+        /** @return How many plots and exports were cancelled */
+        public long getCancellations(){ return cancellations; }
+
+        /** @return How many tiles were computed instead of found in a cache */
+        public long getTiles(){ return tiles; }
+
+        /** @return How many tiles were found in a cache */
+        public long getCacheHits(){ return cacheHits; }
+
+        /** @return How many exports finished */
+        public long getExports(){ return exports; }
+
+        /** @return How many bytes the finished exports wrote */
+        public long getExportBytes(){ return exportBytes; }
+
+        /** @return Pixels per second over all the finished plots */
+        public double getRenderPixelsPerSecond(){ return rate(renderPixels, renderNanos); }
+
+        /**
+         * @return Pixels per second over all the computed tiles, on one
+         *         thread. Tiles are computed on many threads at once, so this
+         *         is slower than a whole plot.
+         */
+        public double getTilePixelsPerSecond(){ return rate(tilePixels, tileNanos); }
+
+        /** @return Pixels per second over all the finished exports */
+        public double getExportPixelsPerSecond(){ return rate(exportPixels, exportNanos); }
+
+        /** @return The fraction of tiles that were found in a cache */
+        public double getCacheHitRate(){
+            return tiles + cacheHits == 0 ? 0 : (double) cacheHits / (tiles + cacheHits);
+        }
+
+        @Override
+        public String toString(){
+            return String.format(
+                    "Plots: %d (%d cancelled), %d pixels, %.1f Mpixels/s%n"
+                    + "Tiles: %d computed, %d from cache (%.1f%% hit rate), %.1f Mpixels/s per thread%n"
+                    + "Exports: %d, %d pixels, %d KB, %.1f Mpixels/s",
+                    renders, cancellations, renderPixels, getRenderPixelsPerSecond() / 1e6,
+                    tiles, cacheHits, 100 * getCacheHitRate(), getTilePixelsPerSecond() / 1e6,
+                    exports, exportPixels, exportBytes / 1024, getExportPixelsPerSecond() / 1e6
+            );
+        }
+
+        private static double rate(long pixels, long nanos){
+            return nanos == 0 ? 0 : pixels * 1e9 / nanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+package cs.ratnani.bench;
+
+import cs.ratnani.math.FastMath;
+
+import java.util.Random;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+
+/**
+ * This class checks that `FastMath` is as accurate as its documentation says,
+ * so a change to one of its polynomials (or to how it reduces arguments)
+ * cannot quietly make `Precision.FAST` worse. It lives with the tests, out
+ * of the program itself, and `mvn verify` runs it (and fails if it does).
+ * To run it by hand, after `mvn test-compile`:
+ * <pre>
+ *     java -cp target/classes:target/test-classes cs.ratnani.bench.AccuracyCheck [samples]
+ * </pre>
+ * Each function is compared against `StrictMath` at `samples` random
+ * arguments (10^7 by default, as the bounds were measured), spread over the
+ * range the bound is for. It is also tried at the special values (NaN, the
+ * infinities, both zeros, and the edges of each range), where it has to give
+ * NaN, an infinity, or a zero exactly when `StrictMath` does, with the same
+ * sign.
+ *
+ * It prints the largest error found for each function next to its bound, and
+ * exits with status 1 if any bound was broken.
+ *
+ * @see FastMath
+ * @author Ammar Ratnani
+ * @version 2017.05.17
+ */
+public class AccuracyCheck {
+
+    // Constants: --------------------------------------------------------------
+
+    // The bounds documented in `FastMath`
+    private static final double EXP_RELATIVE = 3e-10;
+    private static final double TRIG_ABSOLUTE = 1e-11;
+    private static final double LOG_ABSOLUTE = 1e-12;
+    private static final double ATAN2_ABSOLUTE = 1e-10;
+
+    // Where `FastMath` stops approximating `sin` and `cos`
+    private static final double TRIG_MAX = 1e5;
+
+    // Arguments every function must handle exactly like `StrictMath`
+    private static final double[] SPECIAL = {
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            0.0, -0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL,
+            Double.MAX_VALUE, -Double.MAX_VALUE
+    };
+
+
+    // Instance Variables: -----------------------------------------------------
+
+    // Whether every check so far passed
+    private static boolean passed = true;
+
+
+    // Public Methods: ---------------------------------------------------------
+
+    /**
+     * Runs every check and prints how each went.
+     *
+     * @param args How many random arguments to try for each function
+     */
+    public static void main(String[] args){
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        // Fixed, so a failure can be run again
+        Random rand = new Random(20170517);
+
+        System.out.printf("%-8s %-22s %14s %14s%n", "Function", "Range", "Max error", "Bound");
+
+        checkUnary("exp", "[-708, 709]", FastMath::exp, StrictMath::exp, true, EXP_RELATIVE,
+                samples, () -> uniform(rand, -708, 709));
+        checkUnary("sin", "|x| <= 1e5", FastMath::sin, StrictMath::sin, false, TRIG_ABSOLUTE,
+                samples, () -> trigArgument(rand));
+        checkUnary("sin", "|x| > 1e5", FastMath::sin, StrictMath::sin, false, TRIG_ABSOLUTE,
+                samples / 10, () -> Math.copySign(Math.exp(uniform(rand, Math.log(TRIG_MAX), 700)), rand.nextDouble() - 0.5));
+        checkUnary("cos", "|x| <= 1e5", FastMath::cos, StrictMath::cos, false, TRIG_ABSOLUTE,
+                samples, () -> trigArgument(rand));
+        checkUnary("cos", "|x| > 1e5", FastMath::cos, StrictMath::cos, false, TRIG_ABSOLUTE,
+                samples / 10, () -> Math.copySign(Math.exp(uniform(rand, Math.log(TRIG_MAX), 700)), rand.nextDouble() - 0.5));
+        checkUnary("log", "x > 0", FastMath::log, StrictMath::log, false, LOG_ABSOLUTE,
+                samples, () -> anyPositive(rand));
+        checkBinary("atan2", "everywhere", FastMath::atan2, StrictMath::atan2, ATAN2_ABSOLUTE,
+                samples, rand);
+
+        checkSpecial("exp", FastMath::exp, StrictMath::exp);
+        checkSpecial("sin", FastMath::sin, StrictMath::sin);
+        checkSpecial("cos", FastMath::cos, StrictMath::cos);
+        checkSpecial("log", FastMath::log, StrictMath::log);
+        for(double y : SPECIAL)
+            checkSpecial("atan2", x -> FastMath.atan2(y, x), x -> StrictMath.atan2(y, x));
+
+        System.out.println(passed ? "All bounds hold" : "Some bounds were broken");
+        if(!passed)
+            System.exit(1);
+    }
+
+
+    // Private Methods: --------------------------------------------------------
+
+    /**
+     * Compares one function against `StrictMath` at random arguments, and
+     * prints the largest error.
+     *
+     * @param relative Whether the bound is relative to the true value,
+     *                 instead of absolute
+     * @param next Where the arguments come from
+     */
+    private static void checkUnary(String name, String range, DoubleUnaryOperator fast,
+                                   DoubleUnaryOperator strict, boolean relative, double bound,
+                                   int samples, DoubleSupplier next){
+        double worst = 0;
+        double worstAt = 0;
+        for(int i = 0; i < samples; i++){
+            double x = next.getAsDouble();
+            double want = strict.applyAsDouble(x);
+            double err = Math.abs(fast.applyAsDouble(x) - want);
+            if(relative)
+                err /= Math.abs(want);
+            if(!(err <= worst)){
+                worst = err;
+                worstAt = x;
+            }
+        }
+        report(name, range, worst, bound, "x = " + worstAt);
+    }
+
+    /** Same as above, for `atan2` over points of every size and sign */
+    private static void checkBinary(String name, String range, DoubleBinaryOperator fast,
+                                    DoubleBinaryOperator strict, double bound, int samples, Random rand){
+        double worst = 0;
+        String worstAt = "";
+        for(int i = 0; i < samples; i++){
+            // Half near the origin, half anywhere
+            double y = i % 2 == 0 ? uniform(rand, -1, 1) : anyFinite(rand);
+            double x = i % 2 == 0 ? uniform(rand, -1, 1) : anyFinite(rand);
+            double err = Math.abs(fast.applyAsDouble(y, x) - strict.applyAsDouble(y, x));
+            if(!(err <= worst)){
+                worst = err;
+                worstAt = "y = " + y + ", x = " + x;
+            }
+        }
+        report(name, range, worst, bound, worstAt);
+    }
+
+    /**
+     * Checks that a function gives exactly what `StrictMath` does at each of
+     * `SPECIAL`, telling NaN apart from numbers and -0 from +0.
+     */
+    private static void checkSpecial(String name, DoubleUnaryOperator fast, DoubleUnaryOperator strict){
+        for(double x : SPECIAL){
+            double got = fast.applyAsDouble(x);
+            double want = strict.applyAsDouble(x);
+            boolean same = Double.isNaN(want)
+                    ? Double.isNaN(got)
+                    : Double.doubleToLongBits(got) == Double.doubleToLongBits(want)
+                            // Only the sign matters at the edges, the rest is
+                            //  covered by the bounds
+                            || (got != 0 && Double.isFinite(want) && Math.abs(got - want) <= 1e-10 * Math.abs(want));
+            if(!same){
+                passed = false;
+                System.out.printf("%-8s at %s gave %s instead of %s  FAILED%n", name, x, got, want);
+            }
+        }
+    }
+
+    private static void report(String name, String range, double worst, double bound, String at){
+        boolean ok = worst <= bound;
+        passed &= ok;
+        System.out.printf("%-8s %-22s %14.3g %14.3g%s%n", name, range, worst, bound, ok ? "" : "  FAILED at " + at);
+    }
+
+    /** @return A random number in [lo, hi) */
+    private static double uniform(Random rand, double lo, double hi){
+        return lo + (hi - lo) * rand.nextDouble();
+    }
+
+    /**
+     * @return A random argument for `sin` or `cos` that `FastMath`
+     *         approximates: half from the usual plot area, half from all of
+     *         [-1e5, 1e5]
+     */
+    private static double trigArgument(Random rand){
+        return rand.nextBoolean() ? uniform(rand, -10, 10) : uniform(rand, -TRIG_MAX, TRIG_MAX);
+    }
+
+    /** @return A random positive double, from any binade including subnormals */
+    private static double anyPositive(Random rand){
+        double ret;
+        do{
+            ret = Double.longBitsToDouble(rand.nextLong() & Long.MAX_VALUE);
+        } while(!(ret > 0 && ret <= Double.MAX_VALUE));
+        return ret;
+    }
+
+    /** @return A random finite double of either sign, from any binade */
+    private static double anyFinite(Random rand){
+        return Math.copySign(anyPositive(rand), rand.nextDouble() - 0.5);
+    }
+
+}